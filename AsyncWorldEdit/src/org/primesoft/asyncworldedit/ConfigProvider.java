@@ -23,9 +23,13 @@
  */
 package org.primesoft.asyncworldedit;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import org.bukkit.configuration.Configuration;
 import org.bukkit.configuration.ConfigurationSection;
+import org.primesoft.asyncworldedit.blockPlacer.BlockPlacerEntryType;
+import org.primesoft.asyncworldedit.blockPlacer.CoalesceMode;
 import org.primesoft.asyncworldedit.worldedit.WorldeditOperations;
 
 /**
@@ -71,6 +75,42 @@ public class ConfigProvider {
 
     private static int m_queueTalkInterval;
 
+    private static boolean m_groupByChunk;
+
+    private static int m_groupLookahead;
+
+    private static double m_timeBudget;
+
+    private static CoalesceMode m_coalesceMode;
+
+    private static boolean m_skipUnchanged;
+
+    private static int m_preparationThreads;
+
+    private static int m_preparationPlayerLimit;
+
+    private static int m_snapshotCacheSize;
+
+    private static int m_snapshotBatch;
+
+    private static boolean m_readYourWrites;
+
+    private static double m_getTimeBudget;
+
+    private static int m_streamHighWater;
+
+    private static int m_streamLowWater;
+
+    private static int m_queueWaitTimeout;
+
+    private static double m_defaultWeight;
+
+    private static double m_vipWeight;
+
+    private static HashMap<String, Double> m_weights;
+
+    private static HashMap<BlockPlacerEntryType, Integer> m_entryCosts;
+
     private static String m_configVersion;
 
     private static HashSet<WorldeditOperations> m_allowedOperations;
@@ -163,6 +203,175 @@ public class ConfigProvider {
         return m_queueTalkInterval;
     }
 
+    /**
+     * Is the chunk grouped block placing enabled
+     *
+     * @return
+     */
+    public static boolean isGroupByChunk() {
+        return m_groupByChunk;
+    }
+
+    /**
+     * Number of queued blocks grouped by chunk
+     *
+     * @return
+     */
+    public static int getGroupLookahead() {
+        return m_groupLookahead;
+    }
+
+    /**
+     * Maximum time (in ms) spent on placing blocks in one run, 0 disables the
+     * time budget mode
+     *
+     * @return
+     */
+    public static double getTimeBudget() {
+        return m_timeBudget;
+    }
+
+    /**
+     * The queued writes coalescing mode
+     *
+     * @return
+     */
+    public static CoalesceMode getCoalesceMode() {
+        return m_coalesceMode;
+    }
+
+    /**
+     * Skip the queued writes that do not change the world
+     *
+     * @return
+     */
+    public static boolean isSkipUnchanged() {
+        return m_skipUnchanged;
+    }
+
+    /**
+     * Maximum number of operations prepared at once, 0 means number of CPU
+     * cores - 1
+     *
+     * @return
+     */
+    public static int getPreparationThreads() {
+        return m_preparationThreads;
+    }
+
+    /**
+     * Maximum number of operations prepared at once for a single player
+     *
+     * @return
+     */
+    public static int getPreparationPlayerLimit() {
+        return m_preparationPlayerLimit;
+    }
+
+    /**
+     * Maximum number of chunk snapshots cached by a single async operation, 0
+     * disables the snapshot reads
+     *
+     * @return
+     */
+    public static int getSnapshotCacheSize() {
+        return m_snapshotCacheSize;
+    }
+
+    /**
+     * Number of chunk snapshots captured in one main thread round trip
+     *
+     * @return
+     */
+    public static int getSnapshotBatch() {
+        return m_snapshotBatch;
+    }
+
+    /**
+     * Async operations read their own queued (not yet placed) writes
+     *
+     * @return
+     */
+    public static boolean isReadYourWrites() {
+        return m_readYourWrites;
+    }
+
+    /**
+     * Maximum time (in ms) spent on the async block read requests per tick
+     *
+     * @return
+     */
+    public static double getGetTimeBudget() {
+        return m_getTimeBudget;
+    }
+
+    /**
+     * Number of queued job blocks when the operation preparation is paused
+     *
+     * @return 0 if the preparation is never paused
+     */
+    public static int getStreamHighWater() {
+        return m_streamHighWater;
+    }
+
+    /**
+     * Number of queued job blocks when the paused operation preparation is
+     * resumed
+     *
+     * @return
+     */
+    public static int getStreamLowWater() {
+        return m_streamLowWater;
+    }
+
+    /**
+     * Maximum time (in seconds) an async operation waits for space on the
+     * full block queue
+     *
+     * @return 0 if the operation does not wait
+     */
+    public static int getQueueWaitTimeout() {
+        return m_queueWaitTimeout;
+    }
+
+    /**
+     * Weight of the players without any weight permission
+     *
+     * @return
+     */
+    public static double getDefaultWeight() {
+        return m_defaultWeight;
+    }
+
+    /**
+     * Weight of the VIP players
+     *
+     * @return
+     */
+    public static double getVipWeight() {
+        return m_vipWeight;
+    }
+
+    /**
+     * Weight groups (AWE.user.weight.&lt;group&gt; permission)
+     *
+     * @return
+     */
+    public static Map<String, Double> getWeights() {
+        return m_weights;
+    }
+
+    /**
+     * Get the placing cost of the entry type
+     *
+     * @param type
+     * @return
+     */
+    public static int getEntryCost(BlockPlacerEntryType type) {
+        Integer cost = m_entryCosts != null ? m_entryCosts.get(type) : null;
+        return cost != null ? cost : 1;
+    }
+
     /**
      * Is the configuration up to date
      *
@@ -268,6 +477,7 @@ public class ConfigProvider {
         m_cleanOnLogout = mainSection.getBoolean("cleanOnLogout", true);
 
         parseRenderSection(mainSection);
+        parseSchedulerSection(mainSection.getConfigurationSection("rendering"));
         parseBlocksHubSection(mainSection.getConfigurationSection("blocksHub"));
 
         m_allowedOperations = parseOperationsSection(mainSection);
@@ -301,6 +511,20 @@ public class ConfigProvider {
             m_queueHardLimit = 500000;
             m_queueSoftLimit = 250000;
             m_queueMaxSize = 10000000;
+            m_groupByChunk = false;
+            m_groupLookahead = 10000;
+            m_timeBudget = 0;
+            m_coalesceMode = CoalesceMode.None;
+            m_skipUnchanged = false;
+            m_preparationThreads = 0;
+            m_preparationPlayerLimit = 1;
+            m_snapshotCacheSize = 256;
+            m_snapshotBatch = 16;
+            m_readYourWrites = true;
+            m_getTimeBudget = 5;
+            m_streamHighWater = 200000;
+            m_streamLowWater = 100000;
+            m_queueWaitTimeout = 600;
         } else {
             m_blocksCnt = renderSection.getInt("blocks", 1000);
             m_vipBlocksCnt = renderSection.getInt("blocks-vip", 1000);
@@ -309,6 +533,20 @@ public class ConfigProvider {
             m_queueSoftLimit = renderSection.getInt("queue-limit-soft", 250000);
             m_queueHardLimit = renderSection.getInt("queue-limit-hard", 500000);
             m_queueMaxSize = renderSection.getInt("queue-max-size", 10000000);
+            m_groupByChunk = renderSection.getBoolean("group-by-chunk", false);
+            m_groupLookahead = renderSection.getInt("group-lookahead", 10000);
+            m_timeBudget = renderSection.getDouble("time-budget", 0);
+            m_coalesceMode = parseCoalesceMode(renderSection.getString("coalesce-writes", "None"));
+            m_skipUnchanged = renderSection.getBoolean("skip-unchanged", false);
+            m_preparationThreads = renderSection.getInt("preparation-threads", 0);
+            m_preparationPlayerLimit = renderSection.getInt("preparation-per-player", 1);
+            m_snapshotCacheSize = renderSection.getInt("snapshot-cache", 256);
+            m_snapshotBatch = renderSection.getInt("snapshot-batch", 16);
+            m_readYourWrites = renderSection.getBoolean("read-your-writes", true);
+            m_getTimeBudget = renderSection.getDouble("get-time-budget", 5);
+            m_streamHighWater = renderSection.getInt("stream-high-water", 200000);
+            m_streamLowWater = renderSection.getInt("stream-low-water", 100000);
+            m_queueWaitTimeout = renderSection.getInt("queue-wait-timeout", 600);
 
             if (m_queueMaxSize <= 0) {
                 PluginMain.log("Warinig: Block queue is disabled!");
@@ -316,6 +554,64 @@ public class ConfigProvider {
         }
     }
 
+    /**
+     * Parse the queued writes coalescing mode
+     *
+     * @param mode
+     * @return
+     */
+    private static CoalesceMode parseCoalesceMode(String mode) {
+        for (CoalesceMode m : CoalesceMode.values()) {
+            if (m.name().equalsIgnoreCase(mode)) {
+                return m;
+            }
+        }
+
+        PluginMain.log("* unknown coalesce mode " + mode);
+        return CoalesceMode.None;
+    }
+
+    /**
+     * Parse the fair share scheduler section
+     *
+     * @param renderSection
+     */
+    private static void parseSchedulerSection(ConfigurationSection renderSection) {
+        ConfigurationSection schedulerSection = renderSection != null
+                ? renderSection.getConfigurationSection("scheduler") : null;
+
+        m_weights = new HashMap<String, Double>();
+        m_entryCosts = new HashMap<BlockPlacerEntryType, Integer>();
+        m_entryCosts.put(BlockPlacerEntryType.Entity, 1000);
+        m_entryCosts.put(BlockPlacerEntryType.Regenerate, 10000);
+        if (schedulerSection == null) {
+            m_defaultWeight = 1;
+            m_vipWeight = 2;
+            return;
+        }
+
+        m_defaultWeight = schedulerSection.getDouble("default-weight", 1);
+        m_vipWeight = schedulerSection.getDouble("vip-weight", 2);
+
+        ConfigurationSection weightsSection = schedulerSection.getConfigurationSection("weights");
+        if (weightsSection != null) {
+            for (String group : weightsSection.getKeys(false)) {
+                m_weights.put(group, weightsSection.getDouble(group, m_defaultWeight));
+            }
+        }
+
+        ConfigurationSection costsSection = schedulerSection.getConfigurationSection("costs");
+        if (costsSection != null) {
+            for (String string : costsSection.getKeys(false)) {
+                try {
+                    m_entryCosts.put(BlockPlacerEntryType.valueOf(string), costsSection.getInt(string, 1));
+                } catch (Exception e) {
+                    PluginMain.log("* unknown entry type " + string);
+                }
+            }
+        }
+    }
+
     /**
      * Parse enabled operations section
      *
@@ -40,6 +40,8 @@ public final class Help {
         ChatColor.BLUE + "Cancel" + ChatColor.WHITE + " - cancel queued job",
         ChatColor.BLUE + "Purge" + ChatColor.WHITE + " - remove all queued block operations",
         ChatColor.BLUE + "Toggle" + ChatColor.WHITE + " - toggle AsyncWorldEdit on/off",
+        ChatColor.BLUE + "Weight" + ChatColor.WHITE + " - display or set player placing weight",
+        ChatColor.BLUE + "Cost" + ChatColor.WHITE + " - display or set queue entry placing cost",
         ChatColor.BLUE + "Reload" + ChatColor.WHITE + " - reload configuration",
         ChatColor.YELLOW + "To display help on command use: " + ChatColor.BLUE + "/Help <command>"
     };
@@ -65,6 +67,16 @@ public final class Help {
         ChatColor.YELLOW + "Cancel " + ChatColor.WHITE + " - cancel queued job",        
         ChatColor.BLUE + " Cancel #id" + ChatColor.WHITE + " - cancel your job",
         ChatColor.BLUE + " Cancel <u:playerName> #id" + ChatColor.WHITE + " - cancel other player job",};
+    private final static String[] HelpWeight = new String[]{
+        ChatColor.YELLOW + "Weight " + ChatColor.WHITE + " - display or set player placing weight",
+        ChatColor.BLUE + " Weight <u:playerName>" + ChatColor.WHITE + " - display player weight",
+        ChatColor.BLUE + " Weight <u:playerName> <weight>" + ChatColor.WHITE + " - set player weight",
+        ChatColor.BLUE + " Weight <u:playerName> reset" + ChatColor.WHITE + " - use the permission based weight",};
+    private final static String[] HelpCost = new String[]{
+        ChatColor.YELLOW + "Cost " + ChatColor.WHITE + " - display or set queue entry placing cost",
+        ChatColor.BLUE + " Cost" + ChatColor.WHITE + " - display all entry costs",
+        ChatColor.BLUE + " Cost <type>" + ChatColor.WHITE + " - display entry cost",
+        ChatColor.BLUE + " Cost <type> <cost>" + ChatColor.WHITE + " - set entry cost",};
     private final static String[] HelpReload = new String[]{
         ChatColor.YELLOW + "Reload " + ChatColor.WHITE + " - Reload AWE configuration file",};
 
@@ -82,6 +94,10 @@ public final class Help {
                 help = HelpReload;
             } else if (command.equalsIgnoreCase(Commands.COMMAND_CANCEL)) {
                 help = HelpCancel;
+            } else if (command.equalsIgnoreCase(Commands.COMMAND_WEIGHT)) {
+                help = HelpWeight;
+            } else if (command.equalsIgnoreCase(Commands.COMMAND_COST)) {
+                help = HelpCost;
             }
         }
 
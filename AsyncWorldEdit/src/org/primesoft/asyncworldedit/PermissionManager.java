@@ -23,6 +23,7 @@
  */
 package org.primesoft.asyncworldedit;
 
+import java.util.Map;
 import org.bukkit.entity.Player;
 
 /**
@@ -44,7 +45,8 @@ public class PermissionManager {
         Mode_Change, Mode_On, Mode_Off,
         Mode_Change_Other,
         TalkativeQueue, ProgressBar,
-        IgnoreCleanup
+        IgnoreCleanup,
+        Scheduler
     }
     /**
      * Plugin permissions top node
@@ -71,6 +73,31 @@ public class PermissionManager {
         return player.hasPermission(s);
     }
 
+    /**
+     * Get the player block placing weight, the highest weight of the
+     * AWE.user.weight.&lt;group&gt; groups and the VIP queue
+     *
+     * @param player player
+     * @return
+     */
+    public static double getQueueWeight(Player player) {
+        double result = ConfigProvider.getDefaultWeight();
+        if (isAllowed(player, Perms.QueueVip)) {
+            result = Math.max(result, ConfigProvider.getVipWeight());
+        }
+
+        for (Map.Entry<String, Double> entry : ConfigProvider.getWeights().entrySet()) {
+            double weight = entry.getValue();
+            if (weight > result
+                    && (player == null || player.isOp()
+                    || player.hasPermission(s_prefix + "user.weight." + entry.getKey()))) {
+                result = weight;
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Convert permission to string
      *
@@ -117,6 +144,8 @@ public class PermissionManager {
                 return s_prefix + "user.talkative";
             case ProgressBar:
                 return s_prefix + "user.progressBar";
+            case Scheduler:
+                return s_prefix + "admin.scheduler";
         }
 
         return null;
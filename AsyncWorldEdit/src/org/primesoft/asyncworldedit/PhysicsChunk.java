@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Locked blocks of a single chunk. The chunk is divided into 16x16x16
+ * sections, each section keeps a lock counter for every block. Section
+ * counters are allocated on first use. The chunk supports a single writer
+ * and any number of readers, the readers never block.
+ *
+ * @author SBPrime
+ */
+class PhysicsChunk {
+
+    /**
+     * Number of sections in a chunk
+     */
+    public static final int SECTIONS = 16;
+
+    /**
+     * Maximum block height
+     */
+    public static final int MAX_Y = SECTIONS * 16 - 1;
+
+    /**
+     * Lock counters for each section, indexed by (y << 8) | (z << 4) | x
+     */
+    private final AtomicReferenceArray<AtomicIntegerArray> m_sections
+            = new AtomicReferenceArray<AtomicIntegerArray>(SECTIONS);
+
+    /**
+     * Number of locked blocks in each section, used only by the writer
+     */
+    private final int[] m_sectionCount = new int[SECTIONS];
+
+    /**
+     * Number of locked blocks in the chunk
+     */
+    private volatile int m_count;
+
+    /**
+     * Is the chunk empty
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return m_count == 0;
+    }
+
+    /**
+     * Lock a block
+     *
+     * @param x local x coordinate
+     * @param y block height
+     * @param z local z coordinate
+     * @return true if the chunk was empty
+     */
+    public boolean add(int x, int y, int z) {
+        final int s = y >> 4;
+        AtomicIntegerArray section = m_sections.get(s);
+        if (section == null) {
+            section = new AtomicIntegerArray(4096);
+            m_sections.set(s, section);
+        }
+
+        final int idx = index(x, y, z);
+        if (section.getAndIncrement(idx) == 0) {
+            m_sectionCount[s]++;
+            return m_count++ == 0;
+        }
+        return false;
+    }
+
+    /**
+     * Release a block lock
+     *
+     * @param x local x coordinate
+     * @param y block height
+     * @param z local z coordinate
+     * @return true if the chunk became empty
+     */
+    public boolean remove(int x, int y, int z) {
+        final int s = y >> 4;
+        final AtomicIntegerArray section = m_sections.get(s);
+        if (section == null) {
+            return false;
+        }
+
+        final int idx = index(x, y, z);
+        if (section.get(idx) == 0) {
+            return false;
+        }
+
+        if (section.decrementAndGet(idx) == 0) {
+            if (--m_sectionCount[s] == 0) {
+                m_sections.set(s, null);
+            }
+            return --m_count == 0;
+        }
+        return false;
+    }
+
+    /**
+     * Check if any block in the box is locked. All coordinates are inclusive
+     * and local to the chunk.
+     *
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     * @return
+     */
+    public boolean isLocked(int minX, int minY, int minZ,
+            int maxX, int maxY, int maxZ) {
+        if (m_count == 0) {
+            return false;
+        }
+        minY = Math.max(0, minY);
+        maxY = Math.min(MAX_Y, maxY);
+
+        for (int y = minY; y <= maxY; y++) {
+            final AtomicIntegerArray section = m_sections.get(y >> 4);
+            if (section == null) {
+                continue;
+            }
+
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int x = minX; x <= maxX; x++) {
+                    if (section.get(index(x, y, z)) != 0) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int index(int x, int y, int z) {
+        return ((y & 15) << 8) | (z << 4) | x;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit;
+
+import com.sk89q.worldedit.Vector;
+
+/**
+ * Frozen physics region registered by a job. All coordinates are inclusive.
+ *
+ * @author SBPrime
+ */
+public class PhysicsRegion {
+
+    /**
+     * The world name
+     */
+    private final String m_world;
+
+    private final int m_minX;
+    private final int m_minY;
+    private final int m_minZ;
+    private final int m_maxX;
+    private final int m_maxY;
+    private final int m_maxZ;
+
+    public PhysicsRegion(String world, Vector min, Vector max) {
+        m_world = world;
+        m_minX = Math.min(min.getBlockX(), max.getBlockX());
+        m_minY = Math.min(min.getBlockY(), max.getBlockY());
+        m_minZ = Math.min(min.getBlockZ(), max.getBlockZ());
+        m_maxX = Math.max(min.getBlockX(), max.getBlockX());
+        m_maxY = Math.max(min.getBlockY(), max.getBlockY());
+        m_maxZ = Math.max(min.getBlockZ(), max.getBlockZ());
+    }
+
+    public String getWorld() {
+        return m_world;
+    }
+
+    /**
+     * Check if the block is inside the region
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public boolean contains(int x, int y, int z) {
+        return x >= m_minX && x <= m_maxX
+                && y >= m_minY && y <= m_maxY
+                && z >= m_minZ && z <= m_maxZ;
+    }
+
+    /**
+     * Check if the block is inside the region
+     *
+     * @param location
+     * @return
+     */
+    public boolean contains(Vector location) {
+        return contains(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    /**
+     * Check if the block or any of its neighbours is inside the region
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param delta the neighbourhood size
+     * @return
+     */
+    public boolean isNear(int x, int y, int z, int delta) {
+        return x + delta >= m_minX && x - delta <= m_maxX
+                && y + delta >= m_minY && y - delta <= m_maxY
+                && z + delta >= m_minZ && z - delta <= m_maxZ;
+    }
+}
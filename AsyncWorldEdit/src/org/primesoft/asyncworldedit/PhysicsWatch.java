@@ -24,12 +24,13 @@
 package org.primesoft.asyncworldedit;
 
 import com.sk89q.worldedit.Vector;
-import java.util.HashMap;
-import org.bukkit.Location;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 import org.bukkit.block.Block;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.*;
+import org.primesoft.asyncworldedit.utils.LongObjectMap;
 
 /**
  * This class is responsible for freezing all physics in edited regions
@@ -38,19 +39,62 @@ import org.bukkit.event.block.*;
  */
 public class PhysicsWatch implements Listener {
 
+    /**
+     * Locked chunks of a single world
+     */
+    private static class WorldEntry {
+
+        /**
+         * The locked chunks indexed using packed chunk coordinates. The map is
+         * never modified after it is published, adding or removing a chunk
+         * replaces the whole map.
+         */
+        private volatile LongObjectMap<PhysicsChunk> m_chunks = new LongObjectMap<PhysicsChunk>();
+
+        /**
+         * Number of empty chunks kept in the map
+         */
+        private int m_empty;
+    }
+
+    /**
+     * Minimum number of empty chunks before the chunk map is compacted
+     */
+    private static final int MIN_EMPTY_CHUNKS = 64;
+
     /**
      * Is physics watch enabled
      */
-    private boolean m_isEnabled;
+    private volatile boolean m_isEnabled;
     /**
-     * MTA mutex
+     * MTA mutex, used only by the writers. The event handlers never block.
      */
     private final Object m_mutex;
-    private final HashMap<String, HashMap<Integer, HashMap<Integer, HashMap<Integer, Integer>>>> m_locked;
+    
+    /**
+     * Locked chunks for each world
+     */
+    private final ConcurrentHashMap<String, WorldEntry> m_locked;
+
+    /**
+     * Regions frozen by the running jobs, the array is replaced on change
+     */
+    private volatile PhysicsRegion[] m_regions;
+
+    /**
+     * Number of checked physics events
+     */
+    private long m_statsEvents;
+
+    /**
+     * Time spent checking the physics events (ns)
+     */
+    private long m_statsTime;
 
     public PhysicsWatch() {
         m_mutex = new Object();
-        m_locked = new HashMap<String, HashMap<Integer, HashMap<Integer, HashMap<Integer, Integer>>>>();
+        m_locked = new ConcurrentHashMap<String, WorldEntry>();
+        m_regions = new PhysicsRegion[0];
     }
     
     public void Enable()
@@ -65,6 +109,74 @@ public class PhysicsWatch implements Listener {
         synchronized (m_mutex)
         {
             m_locked.clear();
+            m_regions = new PhysicsRegion[0];
+        }
+    }
+
+
+    /**
+     * Number of checked physics events
+     *
+     * @return
+     */
+    public long getCheckedEvents() {
+        return m_statsEvents;
+    }
+
+    /**
+     * Average time spent checking a physics event
+     *
+     * @return time in microseconds
+     */
+    public double getAverageCheckTime() {
+        final long events = m_statsEvents;
+        return events > 0 ? m_statsTime / 1000.0 / events : 0;
+    }
+    
+
+    /**
+     * Freeze the physics in the whole region
+     *
+     * @param name the world name
+     * @param min the region minimum point
+     * @param max the region maximum point
+     * @return the frozen region, null if the physics watch is disabled
+     */
+    public PhysicsRegion addRegion(String name, Vector min, Vector max) {
+        PhysicsRegion region = new PhysicsRegion(name, min, max);
+        synchronized (m_mutex) {
+            if (!m_isEnabled) {
+                return null;
+            }
+
+            PhysicsRegion[] regions = Arrays.copyOf(m_regions, m_regions.length + 1);
+            regions[regions.length - 1] = region;
+            m_regions = regions;
+        }
+        return region;
+    }
+
+    /**
+     * Release the frozen region
+     *
+     * @param region
+     */
+    public void removeRegion(PhysicsRegion region) {
+        if (region == null) {
+            return;
+        }
+
+        synchronized (m_mutex) {
+            PhysicsRegion[] regions = m_regions;
+            for (int i = 0; i < regions.length; i++) {
+                if (regions[i] == region) {
+                    PhysicsRegion[] result = new PhysicsRegion[regions.length - 1];
+                    System.arraycopy(regions, 0, result, 0, i);
+                    System.arraycopy(regions, i + 1, result, i, result.length - i);
+                    m_regions = result;
+                    return;
+                }
+            }
         }
     }
     
@@ -73,6 +185,9 @@ public class PhysicsWatch implements Listener {
         int x = location.getBlockX();
         int y = location.getBlockY();
         int z = location.getBlockZ();
+        if (y < 0 || y > PhysicsChunk.MAX_Y) {
+            return;
+        }
 
         synchronized (m_mutex) {
             if (!m_isEnabled)
@@ -80,34 +195,23 @@ public class PhysicsWatch implements Listener {
                 return;
             }
             
-            HashMap<Integer, HashMap<Integer, HashMap<Integer, Integer>>> xhash;
-            if (!m_locked.containsKey(name)) {
-                xhash = new HashMap<Integer, HashMap<Integer, HashMap<Integer, Integer>>>();
-                m_locked.put(name, xhash);
-            } else {
-                xhash = m_locked.get(name);
+            WorldEntry world = m_locked.get(name);
+            if (world == null) {
+                world = new WorldEntry();
+                m_locked.put(name, world);
             }
 
-            HashMap<Integer, HashMap<Integer, Integer>> yhash;
-            if (!xhash.containsKey(x)) {
-                yhash = new HashMap<Integer, HashMap<Integer, Integer>>();
-                xhash.put(x, yhash);
-            } else {
-                yhash = xhash.get(x);
-            }
-
-            HashMap<Integer, Integer> zhash;
-            if (!yhash.containsKey(y)) {
-                zhash = new HashMap<Integer, Integer>();
-                yhash.put(y, zhash);
-            } else {
-                zhash = yhash.get(y);
-            }
-
-            if (!zhash.containsKey(z)) {
-                zhash.put(z, 1);
-            } else {
-                zhash.put(z, zhash.get(z) + 1);
+            long key = chunkKey(x >> 4, z >> 4);
+            PhysicsChunk chunk = world.m_chunks.get(key);
+            if (chunk == null) {
+                chunk = new PhysicsChunk();
+                chunk.add(x & 15, y, z & 15);
+
+                LongObjectMap<PhysicsChunk> chunks = new LongObjectMap<PhysicsChunk>(world.m_chunks);
+                chunks.put(key, chunk);
+                world.m_chunks = chunks;
+            } else if (chunk.add(x & 15, y, z & 15)) {
+                world.m_empty--;
             }
         }
     }
@@ -116,7 +220,9 @@ public class PhysicsWatch implements Listener {
         int x = location.getBlockX();
         int y = location.getBlockY();
         int z = location.getBlockZ();
-
+        if (y < 0 || y > PhysicsChunk.MAX_Y) {
+            return;
+        }
                
         synchronized (m_mutex) {
             if (!m_isEnabled)
@@ -124,32 +230,38 @@ public class PhysicsWatch implements Listener {
                 return;
             }
             
-            if (!m_locked.containsKey(name)) {
+            WorldEntry world = m_locked.get(name);
+            if (world == null) {
                 return;
             }
-            HashMap<Integer, HashMap<Integer, HashMap<Integer, Integer>>> xhash = m_locked.get(name);
 
-            if (!xhash.containsKey(x)) {
+            PhysicsChunk chunk = world.m_chunks.get(chunkKey(x >> 4, z >> 4));
+            if (chunk == null || !chunk.remove(x & 15, y, z & 15)) {
                 return;
             }
-            HashMap<Integer, HashMap<Integer, Integer>> yhash = xhash.get(x);
 
-
-            if (!yhash.containsKey(y)) {
+            //Empty chunks are kept until there are enough of them to justify
+            //the map copy
+            world.m_empty++;
+            final LongObjectMap<PhysicsChunk> chunks = world.m_chunks;
+            if (world.m_empty < MIN_EMPTY_CHUNKS || world.m_empty * 2 < chunks.size()) {
                 return;
             }
-            HashMap<Integer, Integer> zhash = yhash.get(y);
 
-            Integer val = zhash.get(z);
-            if (val == null) {
+            if (world.m_empty == chunks.size()) {
+                m_locked.remove(name);
                 return;
             }
 
-            val = val - 1;
-            zhash.remove(z);
-            if (val != 0) {
-                zhash.put(z, val);
+            LongObjectMap<PhysicsChunk> result = new LongObjectMap<PhysicsChunk>();
+            for (long key : chunks.keys()) {
+                PhysicsChunk c = chunks.get(key);
+                if (!c.isEmpty()) {
+                    result.put(key, c);
+                }
             }
+            world.m_chunks = result;
+            world.m_empty = 0;
         }
     }
 
@@ -157,40 +269,72 @@ public class PhysicsWatch implements Listener {
      * Perform test if block event shuld by canceled
      */
     private boolean shuldCancel(Block block) {
-        Location location = block.getLocation();
-        String name = location.getWorld().getName();
-        int x = location.getBlockX();
-        int y = location.getBlockY();
-        int z = location.getBlockZ();
+        final long start = System.nanoTime();
+        final boolean result = isLocked(block);
+        m_statsTime += System.nanoTime() - start;
+        m_statsEvents++;
+        return result;
+    }
+
+    /**
+     * Check if the block or any of its neighbours is locked. The check does
+     * not lock, it reads the published chunk maps and the chunk counters.
+     */
+    private boolean isLocked(Block block) {
         final int delta = 1;
-                
-        synchronized (m_mutex) {
-            if (!m_locked.containsKey(name)) {
-                return false;
+        String name = block.getWorld().getName();
+        int x = block.getX();
+        int y = block.getY();
+        int z = block.getZ();
+
+        int minX = x - delta;
+        int maxX = x + delta;
+        int minZ = z - delta;
+        int maxZ = z + delta;
+
+        final PhysicsRegion[] regions = m_regions;
+        for (PhysicsRegion region : regions) {
+            if (region.isNear(x, y, z, delta) && region.getWorld().equals(name)) {
+                return true;
             }
+        }
+
+        WorldEntry world = m_locked.get(name);
+        if (world == null) {
+            return false;
+        }
+
+        final LongObjectMap<PhysicsChunk> chunks = world.m_chunks;
+        //The neighbourhood spans at most 2x2 chunks
+        for (int cx = minX >> 4; cx <= maxX >> 4; cx++) {
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; cz++) {
+                PhysicsChunk chunk = chunks.get(chunkKey(cx, cz));
+                if (chunk == null) {
+                    continue;
+                }
 
-            HashMap<Integer, HashMap<Integer, HashMap<Integer, Integer>>> xhash = m_locked.get(name);
-            for (int px = x - delta; px <= x + delta; px++) {
-                if (xhash.containsKey(px)) {
-                    HashMap<Integer, HashMap<Integer, Integer>> yhash = xhash.get(px);
-
-                    for (int py = y - delta; py <= y + delta; py++) {
-                        if (yhash.containsKey(py)) {
-                            HashMap<Integer, Integer> zhash = yhash.get(py);
-
-                            for (int pz = z - delta; pz <= z + delta; pz++) {
-                                if (zhash.containsKey(pz)) {
-                                    return true;
-                                }
-                            }
-                        }
-                    }
+                int bx = cx << 4;
+                int bz = cz << 4;
+                if (chunk.isLocked(Math.max(minX - bx, 0), y - delta, Math.max(minZ - bz, 0),
+                        Math.min(maxX - bx, 15), y + delta, Math.min(maxZ - bz, 15))) {
+                    return true;
                 }
             }
         }
         return false;
     }
 
+    /**
+     * Pack the chunk coordinates
+     *
+     * @param cx
+     * @param cz
+     * @return
+     */
+    private static long chunkKey(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xffffffffL);
+    }
+
     @EventHandler
     public void onBlockPhysicsEvent(BlockPhysicsEvent event) {
         if (event.isCancelled() || !m_isEnabled) {
@@ -23,7 +23,7 @@
  */
 package org.primesoft.asyncworldedit;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import org.bukkit.entity.Player;
 
 /**
@@ -34,12 +34,13 @@ public class PlayerManager {
 
     private final PluginMain m_parrent;
     /**
-     * List of know players
+     * List of know players, read without locking (changed only when holding
+     * the lock)
      */
-    private final HashMap<String, PlayerWrapper> m_players;
+    private final ConcurrentHashMap<String, PlayerWrapper> m_players;
 
     public PlayerManager(PluginMain parent) {
-        m_players = new HashMap<String, PlayerWrapper>();
+        m_players = new ConcurrentHashMap<String, PlayerWrapper>();
         m_parrent = parent;
     }
 
@@ -53,6 +54,7 @@ public class PlayerManager {
             PlayerWrapper wrapper = m_players.get(pName);
 
             if (wrapper != null) {
+                wrapper.refreshPermissions();
                 return wrapper;
             }
 
@@ -89,8 +91,13 @@ public class PlayerManager {
             return null;
         }
 
+        PlayerWrapper result = m_players.get(player);
+        if (result != null) {
+            return result;
+        }
+
         synchronized (m_players) {
-            PlayerWrapper result = m_players.get(player);
+            result = m_players.get(player);
             if (result == null) {
                 Player cbPlayer = m_parrent.getPlayer(player);
                 if (cbPlayer == null) {
@@ -104,6 +111,78 @@ public class PlayerManager {
         }
     }
 
+    /**
+     * Get known player wrapper, the server is not queried for unknown players
+     *
+     * @param player
+     * @return null if player is not known
+     */
+    public PlayerWrapper findPlayer(String player) {
+        if (player == null) {
+            return null;
+        }
+
+        return m_players.get(player);
+    }
+
+    /**
+     * Check if player has a specific permission, the permissions snapshot is
+     * used for known players
+     *
+     * @param player player name
+     * @param perms permission to check
+     * @return
+     */
+    public boolean isAllowed(String player, PermissionManager.Perms perms) {
+        PlayerWrapper wrapper = findPlayer(player);
+        if (wrapper == null) {
+            return PermissionManager.isAllowed(PluginMain.getPlayer(player), perms);
+        }
+
+        return wrapper.isAllowed(perms);
+    }
+
+    /**
+     * Get the player block placing weight, the permissions snapshot is used
+     * for known players
+     *
+     * @param player player name
+     * @return
+     */
+    public double getQueueWeight(String player) {
+        PlayerWrapper wrapper = findPlayer(player);
+        if (wrapper == null) {
+            return PermissionManager.getQueueWeight(PluginMain.getPlayer(player));
+        }
+
+        return wrapper.getWeight();
+    }
+
+    /**
+     * Refresh the permissions snapshot of the player
+     *
+     * @param player
+     */
+    public void refreshPermissions(Player player) {
+        if (player == null) {
+            return;
+        }
+
+        PlayerWrapper wrapper = findPlayer(player.getName());
+        if (wrapper != null) {
+            wrapper.refreshPermissions();
+        }
+    }
+
+    /**
+     * Refresh the permissions snapshot of all players
+     */
+    public void refreshPermissions() {
+        for (PlayerWrapper wrapper : m_players.values()) {
+            wrapper.refreshPermissions();
+        }
+    }
+
     /**
      * Get default block placing speed
      */
@@ -34,11 +34,21 @@ public class PlayerWrapper {
     private final Player m_player;
     private final String m_name;
     private boolean m_mode;
+    /**
+     * Permissions snapshot (by permission ordinal)
+     */
+    private volatile boolean[] m_permissions;
+    /**
+     * Block placing weight snapshot
+     */
+    private volatile double m_weight;
 
     public PlayerWrapper(Player player, String name, boolean mode) {
         m_player = player;
         m_name = name;
         m_mode = mode;
+
+        refreshPermissions();
     }
 
     public Player getPlayer() {
@@ -56,4 +66,37 @@ public class PlayerWrapper {
     public void setMode(boolean mode) {
         m_mode = mode;
     }
+
+    /**
+     * Check the permission using the permissions snapshot
+     *
+     * @param perms permission to check
+     * @return
+     */
+    public boolean isAllowed(PermissionManager.Perms perms) {
+        return m_permissions[perms.ordinal()];
+    }
+
+    /**
+     * Get the block placing weight snapshot
+     *
+     * @return
+     */
+    public double getWeight() {
+        return m_weight;
+    }
+
+    /**
+     * Take new permissions snapshot
+     */
+    public final void refreshPermissions() {
+        PermissionManager.Perms[] perms = PermissionManager.Perms.values();
+        boolean[] permissions = new boolean[perms.length];
+        for (PermissionManager.Perms perm : perms) {
+            permissions[perm.ordinal()] = PermissionManager.isAllowed(m_player, perm);
+        }
+
+        m_weight = PermissionManager.getQueueWeight(m_player);
+        m_permissions = permissions;
+    }
 }
@@ -37,6 +37,7 @@ import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.PluginManager;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.primesoft.asyncworldedit.blockPlacer.BlockPlacer;
+import org.primesoft.asyncworldedit.worldedit.AsyncTaskExecutor;
 import org.primesoft.asyncworldedit.commands.*;
 import org.primesoft.asyncworldedit.mcstats.MetricsLite;
 import org.primesoft.asyncworldedit.worldedit.WorldeditIntegrator;
@@ -58,6 +59,7 @@ public class PluginMain extends JavaPlugin {
     private EventListener m_listener = new EventListener(this);
     private PhysicsWatch m_physicsWatcher = new PhysicsWatch();
     private BlockPlacer m_blockPlacer;
+    private AsyncTaskExecutor m_taskExecutor;
     private WorldeditIntegrator m_weIntegrator;
     private PlotMeFix m_plotMeFix;
     private PlayerManager m_playerManager = new PlayerManager(this);
@@ -78,6 +80,10 @@ public class PluginMain extends JavaPlugin {
     public BlockPlacer getBlockPlacer() {
         return m_blockPlacer;
     }
+
+    public AsyncTaskExecutor getTaskExecutor() {
+        return m_taskExecutor;
+    }
     
     public BarAPIntegrator getBarAPI() {    
         return m_barApi;
@@ -99,6 +105,20 @@ public class PluginMain extends JavaPlugin {
         s_log.log(Level.INFO, String.format(s_logFormat, s_prefix, msg));
     }
 
+    /**
+     * Log an error together with its stack trace
+     *
+     * @param msg
+     * @param t
+     */
+    public static void log(String msg, Throwable t) {
+        if (s_log == null || msg == null || s_prefix == null) {
+            return;
+        }
+
+        s_log.log(Level.SEVERE, String.format(s_logFormat, s_prefix, msg), t);
+    }
+
     public static void say(String player, String msg) {
         say(getPlayer(player), msg);
     }
@@ -159,6 +179,7 @@ public class PluginMain extends JavaPlugin {
         m_barApi = new BarAPIntegrator(this);
         m_blocksHub = new BlocksHubIntegration(this);
         m_blockPlacer = new BlockPlacer(this);
+        m_taskExecutor = new AsyncTaskExecutor();
         m_plotMeFix = new PlotMeFix(this);
 
         if (ConfigProvider.getCheckUpdate()) {
@@ -189,6 +210,7 @@ public class PluginMain extends JavaPlugin {
     @Override
     public void onDisable() {
         m_blockPlacer.stop();
+        m_taskExecutor.stop();
         m_weIntegrator.queueStop();
         log("Disabled");
     }
@@ -221,6 +243,12 @@ public class PluginMain extends JavaPlugin {
         } else if (name.equalsIgnoreCase(Commands.COMMAND_TOGGLE)) {
             doToggle(player, args);
             return true;
+        } else if (name.equalsIgnoreCase(Commands.COMMAND_WEIGHT)) {
+            doWeight(player, args);
+            return true;
+        } else if (name.equalsIgnoreCase(Commands.COMMAND_COST)) {
+            doCost(player, args);
+            return true;
         }
 
         return Help.ShowHelp(player, null);
@@ -244,8 +272,10 @@ public class PluginMain extends JavaPlugin {
             return;
         }
 
+        m_playerManager.refreshPermissions();
         m_blockPlacer.queueStop();
         m_blockPlacer = new BlockPlacer(this);
+        m_taskExecutor.reloadConfig();
 
         if (ConfigProvider.isPhysicsFreezEnabled()) {
             m_physicsWatcher.Enable();
@@ -293,6 +323,24 @@ public class PluginMain extends JavaPlugin {
         CancelCommand.Execte(this, player, args);
     }
 
+    private void doWeight(Player player, String[] args) {
+        if (!m_isInitialized) {
+            say(player, ChatColor.RED + "Module not initialized, contact administrator.");
+            return;
+        }
+
+        WeightCommand.Execte(this, player, args);
+    }
+
+    private void doCost(Player player, String[] args) {
+        if (!m_isInitialized) {
+            say(player, ChatColor.RED + "Module not initialized, contact administrator.");
+            return;
+        }
+
+        CostCommand.Execte(this, player, args);
+    }
+
     /**
      * Get instance of the world edit plugin
      *
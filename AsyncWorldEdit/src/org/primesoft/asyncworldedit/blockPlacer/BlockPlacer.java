@@ -23,9 +23,18 @@
  */
 package org.primesoft.asyncworldedit.blockPlacer;
 
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.regions.Region;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import org.bukkit.ChatColor;
+import org.bukkit.Chunk;
 import org.bukkit.World;
+import org.bukkit.block.Block;
 import org.bukkit.command.defaults.PlaySoundCommand;
 import org.bukkit.entity.Player;
 import org.bukkit.scheduler.BukkitScheduler;
@@ -33,8 +42,14 @@ import org.bukkit.scheduler.BukkitTask;
 import org.primesoft.asyncworldedit.BarAPIntegrator;
 import org.primesoft.asyncworldedit.ConfigProvider;
 import org.primesoft.asyncworldedit.PermissionManager;
+import org.primesoft.asyncworldedit.PhysicsRegion;
 import org.primesoft.asyncworldedit.PhysicsWatch;
+import org.primesoft.asyncworldedit.PlayerManager;
+import org.primesoft.asyncworldedit.PlayerWrapper;
 import org.primesoft.asyncworldedit.PluginMain;
+import org.primesoft.asyncworldedit.utils.LongCounterMap;
+import org.primesoft.asyncworldedit.utils.PositionPacker;
+import org.primesoft.asyncworldedit.worldedit.ChunkSnapshotCache;
 
 /**
  *
@@ -43,14 +58,43 @@ import org.primesoft.asyncworldedit.PluginMain;
 public class BlockPlacer implements Runnable {
 
     /**
-     * Maximum number of retries
+     * Number of idle runs after which the get task is stopped
      */
-    private final int MAX_RETRIES = 200;
+    private final int GET_IDLE_RUNS = 5;
+    /**
+     * Number of samples used in the time budget AVG count
+     */
+    private final int AVG_SAMPLES = 5;
+    /**
+     * Time budget is not reduced above this TPS
+     */
+    private final double TPS_FULL = 19.5;
+    /**
+     * At this TPS the time budget is reduced to the minimum
+     */
+    private final double TPS_LOW = 10;
+    /**
+     * Minimum part of the time budget that is always used
+     */
+    private final double BUDGET_MIN_SCALE = 0.1;
+    /**
+     * Minimum number of entries placed per run in the time budget mode
+     */
+    private final int BUDGET_MIN_BLOCKS = 10;
+    /**
+     * Maximum number of entries placed per run in the time budget mode
+     */
+    private final int BUDGET_MAX_BLOCKS = 1000000;
     /**
      * MTA mutex
      */
     private final Object m_mutex = new Object();
 
+    /**
+     * The entries scheduler
+     */
+    private final IBlockPlacerScheduler m_entryScheduler;
+
     /**
      * The physics watcher
      */
@@ -74,21 +118,48 @@ public class BlockPlacer implements Runnable {
     private int m_getTaskRunsRemaining;
 
     /**
-     * Logged events queue (per player)
+     * Logged events queue (per player), changed only when holding the block
+     * placer lock
      */
-    private HashMap<String, PlayerEntry> m_blocks;
+    private final ConcurrentHashMap<String, PlayerEntry> m_blocks;
+    /**
+     * Number of entries in all player queues
+     */
+    private final AtomicInteger m_queueSize = new AtomicInteger();
     /**
      * Get blocks requests
      */
-    private final List<BlockPlacerGetBlockEntry> m_getBlocks = new ArrayList<BlockPlacerGetBlockEntry>();
+    private final ArrayDeque<BlockPlacerEntry> m_getBlocks = new ArrayDeque<BlockPlacerEntry>();
+    /**
+     * Maximum time (in ns) spent on the get requests per tick
+     */
+    private final long m_getTimeBudget;
+    /**
+     * Number of queued job blocks when the job preparation is paused
+     */
+    private final int m_streamHighWater;
+    /**
+     * Number of queued job blocks when the paused job preparation is resumed
+     */
+    private final int m_streamLowWater;
+    /**
+     * Maximum time (in ns) an async producer waits for space on the full
+     * block queue
+     */
+    private final long m_queueWaitTimeout;
+    /**
+     * Async producers waiting for space on the full block queue, served in
+     * the arrival order
+     */
+    private final ConcurrentLinkedQueue<Thread> m_queueWaiters = new ConcurrentLinkedQueue<Thread>();
     /**
      * All locked queues
      */
-    private HashSet<String> m_lockedQueues;
+    private final Set<String> m_lockedQueues;
     /**
      * Should block places shut down
      */
-    private boolean m_shutdown;
+    private volatile boolean m_shutdown;
     /**
      * Player block queue hard limit (max bloks count)
      */
@@ -126,6 +197,83 @@ public class BlockPlacer implements Runnable {
      * The bar API
      */
     private final BarAPIntegrator m_barAPI;
+    /**
+     * Place blocks grouped by chunk
+     */
+    private final boolean m_groupByChunk;
+    /**
+     * Number of blocks grouped by chunk
+     */
+    private final int m_groupLookahead;
+    /**
+     * The time budget (in ns), 0 if disabled
+     */
+    private final long m_timeBudget;
+    /**
+     * Total cost of the entries placed in the next run (time budget mode)
+     */
+    private int m_budgetBlocks;
+    /**
+     * Measured average placing time of one cost unit (in ns)
+     */
+    private double m_avgEntryTime;
+    /**
+     * Measured server TPS
+     */
+    private double m_tps;
+    /**
+     * The queued writes coalescing mode
+     */
+    private final CoalesceMode m_coalesceMode;
+    /**
+     * Number of queued writes dropped by the coalescing (statistics)
+     */
+    private long m_statsCoalesced;
+    /**
+     * Skip the queued writes that do not change the world
+     */
+    private final boolean m_skipUnchanged;
+    /**
+     * Number of queued writes that did not change the world (statistics)
+     */
+    private long m_statsUnchanged;
+    /**
+     * Blocks written in the current run (main thread)
+     */
+    private final LongCounterMap m_runWrites;
+    /**
+     * The world was changed by a non block entry in the current run
+     */
+    private boolean m_runUnsafe;
+    /**
+     * Number of queued writes that can still be dropped in the current run,
+     * the dropped writes are bound by the same budget as the placed blocks
+     */
+    private int m_runDropBudget;
+    /**
+     * Last chunk used to check for unchanged blocks (current run)
+     */
+    private Chunk m_lastChunk;
+    /**
+     * Last used job (current run)
+     */
+    private BlockPlacerJobEntry m_lastJob;
+    /**
+     * Player entry of the last used job
+     */
+    private PlayerEntry m_lastJobPlayer;
+    /**
+     * ID of the last used job
+     */
+    private int m_lastJobId;
+    /**
+     * Number of placed blocks (statistics)
+     */
+    private long m_statsBlocks;
+    /**
+     * Number of chunks touched when placing blocks (statistics)
+     */
+    private long m_statsChunks;
 
     /**
      * List of all job added listeners
@@ -136,6 +284,11 @@ public class BlockPlacer implements Runnable {
      * Parent plugin main
      */
     private final PluginMain m_plugin;
+
+    /**
+     * The player manager (permissions snapshot)
+     */
+    private final PlayerManager m_playerManager;
    
 
     /**
@@ -157,14 +310,17 @@ public class BlockPlacer implements Runnable {
         m_jobAddedListeners = new ArrayList<IBlockPlacerListener>();
         m_lastRunTime = System.currentTimeMillis();
         m_runNumber = 0;
-        m_blocks = new HashMap<String, PlayerEntry>();
-        m_lockedQueues = new HashSet<String>();
+        //The block placer is created on the main thread
+        m_mainThread = Thread.currentThread();
+        m_blocks = new ConcurrentHashMap<String, PlayerEntry>();
+        m_lockedQueues = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
         m_scheduler = plugin.getServer().getScheduler();
         m_barAPI = plugin.getBarAPI();
         m_interval = ConfigProvider.getInterval();
         m_task = m_scheduler.runTaskTimer(plugin, this,
                 m_interval, m_interval);
         m_plugin = plugin;
+        m_playerManager = plugin.getPlayerManager();
 
         startGetTask();
 
@@ -172,12 +328,35 @@ public class BlockPlacer implements Runnable {
         m_queueHardLimit = ConfigProvider.getQueueHardLimit();
         m_queueSoftLimit = ConfigProvider.getQueueSoftLimit();
         m_queueMaxSize = ConfigProvider.getQueueMaxSize();
+        m_groupByChunk = ConfigProvider.isGroupByChunk();
+        m_groupLookahead = ConfigProvider.getGroupLookahead();
+        m_timeBudget = (long) (ConfigProvider.getTimeBudget() * 1000000);
+        m_coalesceMode = ConfigProvider.getCoalesceMode();
+        m_skipUnchanged = ConfigProvider.isSkipUnchanged();
+        m_getTimeBudget = (long) (Math.max(0.1, ConfigProvider.getGetTimeBudget()) * 1000000);
+        m_streamHighWater = Math.max(0, ConfigProvider.getStreamHighWater());
+        m_streamLowWater = Math.max(0, Math.min(m_streamHighWater, ConfigProvider.getStreamLowWater()));
+        m_queueWaitTimeout = Math.max(0, ConfigProvider.getQueueWaitTimeout()) * 1000000000L;
+        m_runWrites = new LongCounterMap();
+        m_budgetBlocks = ConfigProvider.getBlockCount() + ConfigProvider.getVipBlockCount();
+        m_avgEntryTime = 0;
+        m_tps = ConfigProvider.TICKS_PER_SECOND;
         m_physicsWatcher = plugin.getPhysicsWatcher();
+        m_entryScheduler = new DeficitRoundRobinScheduler(m_playerManager);
+    }
+
+    /**
+     * Get the entries scheduler
+     *
+     * @return
+     */
+    public IBlockPlacerScheduler getScheduler() {
+        return m_entryScheduler;
     }
 
     private void startGetTask() {
         synchronized (m_mutex) {
-            m_getTaskRunsRemaining = MAX_RETRIES;
+            m_getTaskRunsRemaining = GET_IDLE_RUNS;
             if (m_getTask != null) {
                 return;
             }
@@ -215,28 +394,61 @@ public class BlockPlacer implements Runnable {
     }
 
     /**
-     * Process the get requests
+     * Process the get requests. The requests are processed until the get time
+     * budget is used, the rest is left for the next tick. Block requests are
+     * grouped by chunk and answered from a single chunk access.
      */
     public void processGet() {
-        boolean run = true;
+        final long start = System.nanoTime();
         boolean processed = false;
-        for (int i = 0; i < MAX_RETRIES && run; i++) {
-            final BlockPlacerGetBlockEntry[] tasks;
+        boolean timeout = false;
+
+        while (!timeout) {
+            final BlockPlacerEntry[] tasks;
             synchronized (m_getBlocks) {
-                tasks = m_getBlocks.toArray(new BlockPlacerGetBlockEntry[0]);
+                if (m_getBlocks.isEmpty()) {
+                    break;
+                }
+                tasks = m_getBlocks.toArray(new BlockPlacerEntry[0]);
                 m_getBlocks.clear();
             }
+            processed = true;
+
+            final LinkedHashMap<Object, List<BlockPlacerGetBlockEntry>> groups
+                    = new LinkedHashMap<Object, List<BlockPlacerGetBlockEntry>>();
+            final List<BlockPlacerEntry> left = new ArrayList<BlockPlacerEntry>();
+            for (BlockPlacerEntry t : tasks) {
+                if (timeout) {
+                    left.add(t);
+                } else if (t instanceof BlockPlacerGetBlockEntry) {
+                    BlockPlacerGetBlockEntry getBlock = (BlockPlacerGetBlockEntry) t;
+                    Object key = getChunkKey(getBlock);
+                    List<BlockPlacerGetBlockEntry> group = groups.get(key);
+                    if (group == null) {
+                        group = new ArrayList<BlockPlacerGetBlockEntry>();
+                        groups.put(key, group);
+                    }
+                    group.add(getBlock);
+                } else {
+                    t.Process(this);
+                    timeout = System.nanoTime() - start >= m_getTimeBudget;
+                }
+            }
 
-            for (BlockPlacerGetBlockEntry t : tasks) {
-                t.Process(this);
+            for (List<BlockPlacerGetBlockEntry> group : groups.values()) {
+                if (timeout) {
+                    left.addAll(group);
+                } else {
+                    processGetGroup(group);
+                    timeout = System.nanoTime() - start >= m_getTimeBudget;
+                }
             }
-            if (tasks.length > 0) {
-                processed = true;
-                run = true;
-                try {
-                    //Force thread release!
-                    Thread.sleep(1);
-                } catch (InterruptedException ex) {
+
+            if (!left.isEmpty()) {
+                synchronized (m_getBlocks) {
+                    for (int i = left.size() - 1; i >= 0; i--) {
+                        m_getBlocks.addFirst(left.get(i));
+                    }
                 }
             }
         }
@@ -253,74 +465,159 @@ public class BlockPlacer implements Runnable {
     }
 
     /**
-     * Block placer main loop
+     * Get the chunk group key of the get block request
+     *
+     * @param entry
+     * @return
+     */
+    private static Object getChunkKey(BlockPlacerGetBlockEntry entry) {
+        final World world = entry.getEditSession().getCBWorld();
+        final Vector location = entry.getLocation();
+        return new BlockQueue.ChunkKey(world != null ? world.getName() : null,
+                location.getBlockX() >> 4, location.getBlockZ() >> 4);
+    }
+
+    /**
+     * Answer the get block requests for a single chunk, the waiting threads
+     * are woken up when the whole group is done (a failed group wakes them up
+     * without a result)
+     *
+     * @param group
+     */
+    private void processGetGroup(List<BlockPlacerGetBlockEntry> group) {
+        final World world = group.get(0).getEditSession().getCBWorld();
+        final BaseBlock[] results = new BaseBlock[group.size()];
+        Chunk chunk = null;
+        boolean done = false;
+
+        try {
+            for (int i = 0; i < results.length; i++) {
+                final BlockPlacerGetBlockEntry entry = group.get(i);
+                final Vector location = entry.getLocation();
+                final int y = location.getBlockY();
+                if (world != null && y >= 0 && y < world.getMaxHeight()) {
+                    if (chunk == null) {
+                        chunk = world.getChunkAt(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+                    }
+                    final Block block = chunk.getBlock(location.getBlockX() & 0xf, y, location.getBlockZ() & 0xf);
+                    final int type = block.getTypeId();
+                    if (!ChunkSnapshotCache.isTileEntity(type)) {
+                        results[i] = new BaseBlock(type, block.getData());
+                        continue;
+                    }
+                }
+
+                results[i] = entry.getEditSession().doRawGetBlock(location);
+            }
+            done = true;
+        } finally {
+            for (int i = 0; i < results.length; i++) {
+                group.get(i).setResult(done ? results[i] : null);
+            }
+        }
+    }
+
+    /**
+     * Block placer main loop, the player queues are drained without holding
+     * the block placer lock
      */
     @Override
     public void run() {
         m_mainThread = Thread.currentThread();
 
         long now = System.currentTimeMillis();
-        List<BlockPlacerEntry> entries = new ArrayList<BlockPlacerEntry>(ConfigProvider.getBlockCount() + ConfigProvider.getVipBlockCount());
+        List<BlockPlacerEntry> entries = new ArrayList<BlockPlacerEntry>(getBlocksPerRun());
         boolean added = false;
         boolean retry = true;
         final List<BlockPlacerJobEntry> jobsToCancel = new ArrayList<BlockPlacerJobEntry>();
 
-        synchronized (this) {
-            final String[] keys = m_blocks.keySet().toArray(new String[0]);
+        final String[] keys = m_blocks.keySet().toArray(new String[0]);
 
-            final HashSet<String> vips = getVips(keys);
-            final String[] vipKeys = vips.toArray(new String[0]);
+        m_runWrites.clear();
+        m_runUnsafe = false;
+        m_lastChunk = null;
+        m_lastJobPlayer = null;
+        m_lastJob = null;
 
-            final int blockCount = ConfigProvider.getBlockCount();
-            final int blockCountVip = ConfigProvider.getVipBlockCount();
-            final HashMap<String, Integer> blocksPlaced = new HashMap<String, Integer>();
+        int blockCount = ConfigProvider.getBlockCount();
+        int blockCountVip = ConfigProvider.getVipBlockCount();
+        if (m_timeBudget > 0) {
+            final int total = Math.max(1, blockCount + blockCountVip);
+            blockCountVip = (int) ((long) m_budgetBlocks * blockCountVip / total);
+            blockCount = m_budgetBlocks - blockCountVip;
+        }
+        if (!getVips(keys).isEmpty()) {
+            blockCount += blockCountVip;
+        }
+        m_runDropBudget = getBlocksPerRun();
+        final HashMap<String, Integer> blocksPlaced = new HashMap<String, Integer>();
 
-            added |= fetchBlocks(blockCount, keys, entries, blocksPlaced, jobsToCancel);
-            added |= fetchBlocks(blockCountVip, vipKeys, entries, blocksPlaced, jobsToCancel);
+        added |= fetchBlocks(blockCount, keys, entries, blocksPlaced, jobsToCancel);
 
-            if (!added && m_shutdown) {
-                stop();
-            }
+        if (!added && m_shutdown) {
+            stop();
+        }
 
-            m_runNumber++;
-            boolean talk = false;
-            if (m_runNumber > m_talkInterval) {
-                m_runNumber = 0;
-                talk = true;
-            }
-            final long timeDelte = now - m_lastRunTime;
+        m_runNumber++;
+        boolean talk = false;
+        if (m_runNumber > m_talkInterval) {
+            m_runNumber = 0;
+            talk = true;
+        }
+        final long timeDelte = now - m_lastRunTime;
 
-            for (Map.Entry<String, PlayerEntry> queueEntry : m_blocks.entrySet()) {
-                String player = queueEntry.getKey();
-                PlayerEntry entry = queueEntry.getValue();
-                Integer cnt = blocksPlaced.get(player);
+        for (Map.Entry<String, PlayerEntry> queueEntry : m_blocks.entrySet()) {
+            String player = queueEntry.getKey();
+            PlayerEntry entry = queueEntry.getValue();
+            Integer cnt = blocksPlaced.get(player);
 
-                entry.updateSpeed(cnt != null ? cnt : 0, timeDelte);
+            entry.updateSpeed(cnt != null ? cnt : 0, timeDelte);
 
-                final Player p = PluginMain.getPlayer(player);
-                boolean bypass = PermissionManager.isAllowed(p, PermissionManager.Perms.QueueBypass);
-                if (entry.getQueue().isEmpty()) {
-                    if (PermissionManager.isAllowed(p, PermissionManager.Perms.ProgressBar)) {
-                        m_barAPI.disableMessage(p);
-                    }
-                } else {
-                    if (talk && PermissionManager.isAllowed(p, PermissionManager.Perms.TalkativeQueue)) {
-                        PluginMain.say(p, ChatColor.YELLOW + "[AWE] You have "
-                                + getPlayerMessage(entry, bypass));
-                    }
+            final Player p = getPlayer(player);
+            boolean bypass = m_playerManager.isAllowed(player, PermissionManager.Perms.QueueBypass);
+            if (entry.getQueue().isEmpty()) {
+                if (m_playerManager.isAllowed(player, PermissionManager.Perms.ProgressBar)) {
+                    m_barAPI.disableMessage(p);
+                }
+            } else {
+                if (talk && m_playerManager.isAllowed(player, PermissionManager.Perms.TalkativeQueue)) {
+                    PluginMain.say(p, ChatColor.YELLOW + "[AWE] You have "
+                            + getPlayerMessage(entry, bypass));
+                }
 
-                    if (PermissionManager.isAllowed(p, PermissionManager.Perms.ProgressBar)) {
-                        setBar(p, entry, bypass);
-                    }
+                if (m_playerManager.isAllowed(player, PermissionManager.Perms.ProgressBar)) {
+                    setBar(p, entry, bypass);
                 }
             }
         }
 
+        final HashSet<Long> chunks = new HashSet<Long>();
+        int blocks = 0;
+        int processed = 0;
+        long processTime = 0;
         for (BlockPlacerEntry entry : entries) {
             if (entry != null) {
+                final long start = System.nanoTime();
                 entry.Process(this);
+                processTime += System.nanoTime() - start;
+                processed += m_entryScheduler.getCost(entry.getType());
+
+                if (entry instanceof BlockPlacerBlockEntry) {
+                    Vector location = ((BlockPlacerBlockEntry) entry).getLocation();
+                    long cx = location.getBlockX() >> 4;
+                    long cz = location.getBlockZ() >> 4;
+                    chunks.add((cx << 32) | (cz & 0xffffffffL));
+                    blocks++;
+                }
             }
         }
+        m_statsBlocks += blocks;
+        m_statsChunks += chunks.size();
+
+        updateTps(now - m_lastRunTime);
+        if (m_timeBudget > 0) {
+            updateTimeBudget(processed, processTime);
+        }
 
         for (BlockPlacerJobEntry job : jobsToCancel) {
             job.setStatus(BlockPlacerJobEntry.JobStatus.Done);
@@ -333,84 +630,291 @@ public class BlockPlacer implements Runnable {
     /**
      * Fetch the blocks that are going to by placed in this run
      *
-     * @param blockCnt number of blocks to fetch
+     * @param blockCnt total cost of the entries to fetch
      * @param playerNames list of all players
      * @param entries destination blocks entrie
      * @return blocks fatched
      */
     private boolean fetchBlocks(final int blockCnt, final String[] playerNames,
-            List<BlockPlacerEntry> entries, final HashMap<String, Integer> blocksPlaced,
+            final List<BlockPlacerEntry> entries, final HashMap<String, Integer> blocksPlaced,
             final List<BlockPlacerJobEntry> jobsToCancel) {
         if (blockCnt <= 0 || playerNames == null || playerNames.length == 0) {
             return false;
         }
 
-        int keyPos = 0;
-        boolean added = false;
-        boolean result = false;
-        boolean gotDemanding = false;
-        final int maxRetry = playerNames.length;
-        int retry = playerNames.length;
-        for (int i = 0; i < blockCnt && retry > 0 && !gotDemanding; i += added ? 1 : 0) {
-            final String player = playerNames[keyPos];
-            PlayerEntry playerEntry = m_blocks.get(player);
-            if (playerEntry != null) {
-                Queue<BlockPlacerEntry> queue = playerEntry.getQueue();
-                synchronized (queue) {
-                    if (!queue.isEmpty()) {
-                        BlockPlacerEntry entry = queue.poll();
-                        if (entry != null) {
-                            entries.add(entry);
-
-                            added = true;
-
-                            if (blocksPlaced.containsKey(player)) {
-                                blocksPlaced.put(player, blocksPlaced.get(player) + 1);
-                            } else {
-                                blocksPlaced.put(player, 1);
-                            }
-
-                            gotDemanding |= entry.isDemanding();
-                        }
-                    } else {
-                        for (BlockPlacerJobEntry job : playerEntry.getJobs()) {
-                            BlockPlacerJobEntry.JobStatus jStatus = job.getStatus();
-                            if (jStatus == BlockPlacerJobEntry.JobStatus.Done
-                                    || jStatus == BlockPlacerJobEntry.JobStatus.Waiting) {
-                                jobsToCancel.add(job);
-                            }
-                        }
+        final int fetched = m_entryScheduler.fetch(playerNames, blockCnt, new IBlockPlacerEntrySource() {
+            @Override
+            public BlockPlacerEntry poll(String player) {
+                return fetchBlock(player, entries, blocksPlaced, jobsToCancel);
+            }
+        });
+
+        //Wake up the first producer waiting for space on the queue
+        Thread waiter = m_queueWaiters.peek();
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        return fetched > 0;
+    }
+
+    /**
+     * Fetch the next entry from the player queue
+     *
+     * @param player the player
+     * @param entries destination blocks entrie
+     * @return fetched entry, null if the player queue is empty
+     */
+    private BlockPlacerEntry fetchBlock(final String player,
+            List<BlockPlacerEntry> entries, final HashMap<String, Integer> blocksPlaced,
+            final List<BlockPlacerJobEntry> jobsToCancel) {
+        PlayerEntry playerEntry = m_blocks.get(player);
+        if (playerEntry == null) {
+            if (m_lockedQueues.contains(player)) {
+                PluginMain.say(player, "Your block queue is unlocked. You can use WorldEdit.");
+                m_lockedQueues.remove(player);
+            }
+            return null;
+        }
 
-                        for (BlockPlacerJobEntry job : jobsToCancel) {
-                            playerEntry.removeJob(job);
+        BlockPlacerEntry entry = null;
+        BlockQueue queue = playerEntry.getQueue();
+        synchronized (queue) {
+            if (!queue.isEmpty()) {
+                entry = m_groupByChunk ? queue.poll(m_groupLookahead) : queue.poll();
+                while (entry instanceof BlockPlacerBlockEntry) {
+                    BlockPlacerBlockEntry blockEntry = (BlockPlacerBlockEntry) entry;
+                    BlockPlacerJobEntry job = getJob(playerEntry, blockEntry.getJobId());
+                    if (job != null) {
+                        job.releasePending(1);
+                    }
+                    //The entry is placed (or dropped) in this run
+                    playerEntry.removeOverlayWrite(blockEntry);
+                    final boolean coalesced = m_coalesceMode != CoalesceMode.None
+                            && playerEntry.removePendingWrite(blockEntry);
+                    //Over the drop budget the writes are placed, placing a
+                    //coalesced or unchanged write is harmless
+                    if (coalesced && m_runDropBudget > 0) {
+                        dropCoalesced(playerEntry, blockEntry);
+                    } else if (m_skipUnchanged && m_runDropBudget > 0 && isUnchanged(blockEntry)) {
+                        dropUnchanged(playerEntry, blockEntry);
+                    } else {
+                        m_runWrites.add(blockEntry.getPackedLocation(), 1);
+                        if (job != null) {
+                            job.updateChanged(1);
                         }
+                        break;
                     }
+                    entry = m_groupByChunk ? queue.poll(m_groupLookahead) : queue.poll();
                 }
-                final int size = queue.size();
-                if (size < m_queueSoftLimit && m_lockedQueues.contains(player)) {
-                    PluginMain.say(player, "Your block queue is unlocked. You can use WorldEdit.");
-                    m_lockedQueues.remove(player);
+                if (entry != null && !(entry instanceof BlockPlacerBlockEntry)) {
+                    switch (entry.getType()) {
+                        case Entity:
+                        case Regenerate:
+                            //The world is changed, unchanged blocks can not
+                            //by detected until the next run
+                            m_runUnsafe = true;
+                            break;
+                    }
                 }
-                if (size == 0 && !playerEntry.hasJobs()) {
-                    m_blocks.remove(playerNames[keyPos]);
-                    Player p = PluginMain.getPlayer(player);
-                    if (PermissionManager.isAllowed(p, PermissionManager.Perms.ProgressBar)) {
-                        m_barAPI.disableMessage(p);
+                if (entry != null) {
+                    entries.add(entry);
+                    playerEntry.updateQueueSize(-1);
+                    m_queueSize.decrementAndGet();
+
+                    if (blocksPlaced.containsKey(player)) {
+                        blocksPlaced.put(player, blocksPlaced.get(player) + 1);
+                    } else {
+                        blocksPlaced.put(player, 1);
                     }
                 }
-            } else if (m_lockedQueues.contains(player)) {
-                PluginMain.say(player, "Your block queue is unlocked. You can use WorldEdit.");
-                m_lockedQueues.remove(player);
-            }
-            keyPos = (keyPos + 1) % playerNames.length;
-            if (added) {
-                retry = maxRetry;
-                result = true;
             } else {
-                retry--;
+                for (BlockPlacerJobEntry job : playerEntry.getJobs()) {
+                    BlockPlacerJobEntry.JobStatus jStatus = job.getStatus();
+                    if (jStatus == BlockPlacerJobEntry.JobStatus.Done
+                            || jStatus == BlockPlacerJobEntry.JobStatus.Waiting) {
+                        jobsToCancel.add(job);
+                    }
+                }
+
+                for (BlockPlacerJobEntry job : jobsToCancel) {
+                    playerEntry.removeJob(job);
+                }
             }
         }
-        return result;
+        final int size = playerEntry.getQueueSize();
+        if (size < m_queueSoftLimit && m_lockedQueues.contains(player)) {
+            PluginMain.say(player, "Your block queue is unlocked. You can use WorldEdit.");
+            m_lockedQueues.remove(player);
+        }
+        if (size == 0 && !playerEntry.hasJobs()) {
+            removePlayerEntry(player, playerEntry);
+        }
+        return entry;
+    }
+
+    /**
+     * Drop the queued write that is overwritten by a later queued write
+     *
+     * @param playerEntry the player entry
+     * @param entry the dropped entry
+     */
+    private void dropCoalesced(PlayerEntry playerEntry, BlockPlacerBlockEntry entry) {
+        dropEntry(playerEntry, entry);
+        playerEntry.updateCoalesced(1);
+        m_statsCoalesced++;
+
+        BlockPlacerJobEntry job = getJob(playerEntry, entry.getJobId());
+        if (job != null) {
+            job.updateCoalesced(1);
+        }
+    }
+
+    /**
+     * Drop the queued write that does not change the world
+     *
+     * @param playerEntry the player entry
+     * @param entry the dropped entry
+     */
+    private void dropUnchanged(PlayerEntry playerEntry, BlockPlacerBlockEntry entry) {
+        dropEntry(playerEntry, entry);
+        m_statsUnchanged++;
+
+        BlockPlacerJobEntry job = getJob(playerEntry, entry.getJobId());
+        if (job != null) {
+            job.updateUnchanged(1);
+        }
+    }
+
+    /**
+     * Remove the dropped write from the queue size and the physics watch
+     *
+     * @param playerEntry the player entry
+     * @param entry the dropped entry
+     */
+    private void dropEntry(PlayerEntry playerEntry, BlockPlacerBlockEntry entry) {
+        m_runDropBudget--;
+        playerEntry.updateQueueSize(-1);
+        m_queueSize.decrementAndGet();
+        entry.releasePhysics(m_physicsWatcher);
+    }
+
+    /**
+     * Check if the world already contains the block. Blocks written earlier
+     * in this run, blocks in not loaded chunks and tile entities are never
+     * treated as unchanged (no chunk is loaded by the check). The last
+     * used chunk is cached, so the blocks placed in a row are read from a
+     * single chunk.
+     *
+     * @param entry
+     * @return
+     */
+    private boolean isUnchanged(BlockPlacerBlockEntry entry) {
+        final int id = entry.getPackedBlock();
+        if (m_runUnsafe || id == BlockPlacerBlockEntry.NO_BLOCK) {
+            return false;
+        }
+
+        final World world = entry.getEditSession().getCBWorld();
+        final long location = entry.getPackedLocation();
+        final int y = PositionPacker.getY(location);
+        if (world == null || y < 0 || y >= world.getMaxHeight()
+                || m_runWrites.get(location) > 0) {
+            return false;
+        }
+
+        final int x = PositionPacker.getX(location);
+        final int z = PositionPacker.getZ(location);
+        Chunk chunk = m_lastChunk;
+        if (chunk == null || chunk.getWorld() != world
+                || chunk.getX() != (x >> 4) || chunk.getZ() != (z >> 4)) {
+            if (!world.isChunkLoaded(x >> 4, z >> 4)) {
+                return false;
+            }
+            chunk = world.getChunkAt(x >> 4, z >> 4);
+            m_lastChunk = chunk;
+        }
+
+        final Block current = chunk.getBlock(x & 0xf, y, z & 0xf);
+        return current.getTypeId() == (id >> 4)
+                && current.getData() == (id & 0xf);
+    }
+
+    /**
+     * Get the player job, the last used job is cached
+     *
+     * @param playerEntry
+     * @param jobId
+     * @return
+     */
+    private BlockPlacerJobEntry getJob(PlayerEntry playerEntry, int jobId) {
+        if (m_lastJobPlayer != playerEntry || m_lastJobId != jobId) {
+            m_lastJobPlayer = playerEntry;
+            m_lastJobId = jobId;
+            m_lastJob = playerEntry.getJob(jobId);
+        }
+        return m_lastJob;
+    }
+
+    /**
+     * Update the measured server TPS
+     *
+     * @param timeDelta time from the last run (ms)
+     */
+    private void updateTps(long timeDelta) {
+        if (timeDelta <= 0) {
+            return;
+        }
+        final double expected = m_interval * 1000.0 / ConfigProvider.TICKS_PER_SECOND;
+        double tps = Math.min(ConfigProvider.TICKS_PER_SECOND,
+                ConfigProvider.TICKS_PER_SECOND * expected / timeDelta);
+        m_tps = (m_tps * (AVG_SAMPLES - 1) + tps) / AVG_SAMPLES;
+    }
+
+    /**
+     * Update the number of entries placed in the next run based on the
+     * measured entry cost and the server TPS
+     *
+     * @param processed total cost of the processed entries
+     * @param processTime time spent on processing the entries (ns)
+     */
+    private void updateTimeBudget(int processed, long processTime) {
+        if (processed > 0) {
+            double entryTime = (double) processTime / processed;
+            m_avgEntryTime = m_avgEntryTime <= 0 ? entryTime
+                    : (m_avgEntryTime * (AVG_SAMPLES - 1) + entryTime) / AVG_SAMPLES;
+        }
+        if (m_avgEntryTime <= 0) {
+            return;
+        }
+
+        double scale = 1;
+        if (m_tps < TPS_FULL) {
+            scale = Math.max(BUDGET_MIN_SCALE, (m_tps - TPS_LOW) / (TPS_FULL - TPS_LOW));
+        }
+
+        double blocks = m_timeBudget * scale / m_avgEntryTime;
+        m_budgetBlocks = (int) Math.max(BUDGET_MIN_BLOCKS, Math.min(BUDGET_MAX_BLOCKS, blocks));
+    }
+
+    /**
+     * Get the measured server TPS
+     *
+     * @return
+     */
+    public double getTps() {
+        return m_tps;
+    }
+
+    /**
+     * Get the number of entries placed per run
+     *
+     * @return
+     */
+    public int getBlocksPerRun() {
+        if (m_timeBudget > 0) {
+            return m_budgetBlocks;
+        }
+        return ConfigProvider.getBlockCount() + ConfigProvider.getVipBlockCount();
     }
 
     /**
@@ -441,17 +945,45 @@ public class BlockPlacer implements Runnable {
      * @return
      */
     public int getJobId(String player) {
-        PlayerEntry playerEntry;
+        return getPlayerEntry(player).getNextJobId();
+    }
+
+    /**
+     * Get the player entry, create new entry if not found
+     *
+     * @param player
+     * @return
+     */
+    private PlayerEntry getPlayerEntry(String player) {
         synchronized (this) {
-            if (!m_blocks.containsKey(player)) {
-                playerEntry = new PlayerEntry();
+            PlayerEntry playerEntry = m_blocks.get(player);
+            if (playerEntry == null) {
+                playerEntry = new PlayerEntry(m_coalesceMode);
                 m_blocks.put(player, playerEntry);
-            } else {
-                playerEntry = m_blocks.get(player);
             }
+            return playerEntry;
+        }
+    }
+
+    /**
+     * Remove the empty player entry, the entry is kept if some thread is
+     * adding entries to it
+     *
+     * @param player
+     * @param playerEntry
+     */
+    private void removePlayerEntry(String player, PlayerEntry playerEntry) {
+        synchronized (this) {
+            if (m_blocks.get(player) != playerEntry || !playerEntry.tryRemove()) {
+                return;
+            }
+            m_blocks.remove(player);
         }
 
-        return playerEntry.getNextJobId();
+        Player p = getPlayer(player);
+        if (m_playerManager.isAllowed(player, PermissionManager.Perms.ProgressBar)) {
+            m_barAPI.disableMessage(p);
+        }
     }
 
     public BlockPlacerJobEntry getJob(String player, int jobId) {
@@ -465,17 +997,7 @@ public class BlockPlacer implements Runnable {
     }
 
     public void addJob(String player, BlockPlacerJobEntry job) {
-        synchronized (this) {
-            PlayerEntry playerEntry;
-
-            if (!m_blocks.containsKey(player)) {
-                playerEntry = new PlayerEntry();
-                m_blocks.put(player, playerEntry);
-            } else {
-                playerEntry = m_blocks.get(player);
-            }
-            playerEntry.addJob((BlockPlacerJobEntry) job);
-        }
+        getPlayerEntry(player).addJob((BlockPlacerJobEntry) job);
 
         synchronized (m_jobAddedListeners) {
             for (IBlockPlacerListener listener : m_jobAddedListeners) {
@@ -485,70 +1007,292 @@ public class BlockPlacer implements Runnable {
     }
 
     /**
-     * Add task to perform in async mode
+     * Add task to perform in async mode. The block placer lock is taken only
+     * when a new player entry needs to be created.
      *
      */
     public boolean addTasks(String player, BlockPlacerEntry entry) {
-        synchronized (this) {
-            PlayerEntry playerEntry;
+        if (entry instanceof BlockPlacerBlockEntry) {
+            waitForJobBlocks(player, entry.getJobId());
+            waitForQueueSpace(player, entry.getJobId());
+        }
 
-            if (!m_blocks.containsKey(player)) {
-                playerEntry = new PlayerEntry();
-                m_blocks.put(player, playerEntry);
-            } else {
-                playerEntry = m_blocks.get(player);
-            }
-            Queue<BlockPlacerEntry> queue = playerEntry.getQueue();
+        PlayerEntry playerEntry = m_blocks.get(player);
+        while (playerEntry == null || !playerEntry.enterProducer()) {
+            playerEntry = getPlayerEntry(player);
+        }
 
+        final boolean lock;
+        BlockPlacerJobEntry job = null;
+        try {
             if (m_lockedQueues.contains(player)) {
                 return false;
             }
 
-            boolean bypass = !PermissionManager.isAllowed(PluginMain.getPlayer(player), PermissionManager.Perms.QueueBypass);
-            int size = 0;
-            for (Map.Entry<String, PlayerEntry> queueEntry : m_blocks.entrySet()) {
-                size += queueEntry.getValue().getQueue().size();
+            if (entry instanceof BlockPlacerBlockEntry && entry.getJobId() != -1) {
+                //The blocks of a removed (canceled or purged) job are not
+                //queued, the job removal waits for the entered producers
+                final BlockPlacerJobEntry found = playerEntry.findJob(entry.getJobId());
+                if (found == null || !found.enterProducer()) {
+                    return false;
+                }
+                job = found;
             }
 
-            bypass |= entry instanceof BlockPlacerJobEntry;
-            if (m_queueMaxSize > 0 && size > m_queueMaxSize && !bypass) {
-                if (player == null)
-                {
+            final boolean limited = !(entry instanceof BlockPlacerJobEntry) && isQueueLimited(player);
+            final int size = m_queueSize.get();
+
+            if (m_queueMaxSize > 0 && size > m_queueMaxSize && limited) {
+                if (player == null) {
                     return false;
                 }
-                
-                if (!playerEntry.isInformed()){
+
+                if (!playerEntry.isInformed()) {
                     playerEntry.setInformed(true);
                     PluginMain.say(player, "Out of space on AWE block queue.");
                 }
-                
+
                 return false;
-            } else {
-                if (playerEntry.isInformed()){
-                    playerEntry.setInformed(false);
+            }
+
+            if (playerEntry.isInformed()) {
+                playerEntry.setInformed(false);
+            }
+
+            if (entry instanceof BlockPlacerBlockEntry) {
+                //Register the write before it is visible to the block placer
+                BlockPlacerBlockEntry blockEntry = (BlockPlacerBlockEntry) entry;
+                if (m_coalesceMode != CoalesceMode.None) {
+                    playerEntry.addPendingWrite(blockEntry);
                 }
-                
-                synchronized (queue) {
-                    queue.add(entry);
+                playerEntry.addOverlayWrite(blockEntry);
+
+                if (job != null) {
+                    blockEntry.setJob(job);
+                    job.addPending();
                 }
-                if (entry instanceof BlockPlacerBlockEntry) {
-                    World world = entry.getEditSession().getCBWorld();
-                    if (world != null) {
-                        m_physicsWatcher.addLocation(world.getName(), ((BlockPlacerBlockEntry) entry).getLocation());
-                    }
+                trackPhysics(blockEntry);
+            }
+            playerEntry.getQueue().add(entry);
+            final int playerSize = playerEntry.updateQueueSize(1);
+            m_queueSize.incrementAndGet();
+            if (entry instanceof BlockPlacerJobEntry) {
+                playerEntry.addJob((BlockPlacerJobEntry) entry);
+            }
+
+            lock = playerSize >= m_queueHardLimit && limited;
+        } finally {
+            if (job != null) {
+                job.leaveProducer();
+            }
+            playerEntry.leaveProducer();
+        }
+
+        if (lock && m_lockedQueues.add(player)) {
+            PluginMain.say(player, "Your block queue is full. Wait for items to finish drawing.");
+            return false;
+        }
+
+        return !lock;
+    }
+
+    /**
+     * The async producer of the player running on the current thread has
+     * finished, its open block segment is closed
+     *
+     * @param player the player
+     */
+    public void closeProducer(String player) {
+        PlayerEntry playerEntry = player != null ? m_blocks.get(player) : null;
+        if (playerEntry != null) {
+            playerEntry.getQueue().closeProducer();
+        }
+    }
+
+    /**
+     * Pause the async producer while its job has too many queued blocks, the
+     * main thread is never paused
+     *
+     * @param player the player
+     * @param jobId the job ID
+     */
+    private void waitForJobBlocks(String player, int jobId) {
+        if (m_streamHighWater <= 0 || isMainTask()) {
+            return;
+        }
+
+        PlayerEntry playerEntry = m_blocks.get(player);
+        BlockPlacerJobEntry job = playerEntry != null ? playerEntry.findJob(jobId) : null;
+        if (job != null) {
+            job.waitForPending(m_streamHighWater, m_streamLowWater);
+        }
+    }
+
+    /**
+     * Check if the player block queue is bound by the queue limits
+     *
+     * @param player the player
+     * @return false if the player can bypass the limits
+     */
+    private boolean isQueueLimited(String player) {
+        return !m_playerManager.isAllowed(player, PermissionManager.Perms.QueueBypass);
+    }
+
+    /**
+     * Check if the player can add entries to the block queue
+     *
+     * @param player the player
+     * @param limited is the player bound by the global queue limit
+     * @return
+     */
+    private boolean hasQueueSpace(String player, boolean limited) {
+        if (m_lockedQueues.contains(player)) {
+            return false;
+        }
+        return !limited || m_queueMaxSize <= 0 || m_queueSize.get() <= m_queueMaxSize;
+    }
+
+    /**
+     * Pause the async producer until there is space on the block queue. The
+     * producer first waits for its own queue to be unlocked, then the
+     * producers waiting for the global queue are served in the arrival order.
+     * The main thread is never paused, the blocks are dropped when the wait
+     * times out.
+     *
+     * @param player the player
+     * @param jobId the job ID
+     */
+    private void waitForQueueSpace(String player, int jobId) {
+        if (m_queueWaitTimeout <= 0 || player == null || isMainTask()) {
+            return;
+        }
+
+        final boolean limited = isQueueLimited(player);
+        if (m_queueWaiters.isEmpty() && hasQueueSpace(player, limited)) {
+            return;
+        }
+
+        final long WAIT_TIME = 50000000;
+        final long deadline = System.nanoTime() + m_queueWaitTimeout;
+        final Thread thread = Thread.currentThread();
+        PlayerEntry playerEntry = m_blocks.get(player);
+        final BlockPlacerJobEntry job = playerEntry != null ? playerEntry.findJob(jobId) : null;
+
+        if (job != null) {
+            job.setThrottled(true);
+        }
+        try {
+            while (m_lockedQueues.contains(player)) {
+                if (isWaitAborted(job, deadline)) {
+                    return;
                 }
-                if (entry instanceof BlockPlacerJobEntry) {
-                    playerEntry.addJob((BlockPlacerJobEntry) entry);
+                LockSupport.parkNanos(this, WAIT_TIME);
+            }
+
+            m_queueWaiters.add(thread);
+            try {
+                while (m_queueWaiters.peek() != thread || !hasQueueSpace(player, limited)) {
+                    if (isWaitAborted(job, deadline)) {
+                        return;
+                    }
+                    LockSupport.parkNanos(this, WAIT_TIME);
                 }
-                if (queue.size() >= m_queueHardLimit && bypass) {
-                    m_lockedQueues.add(player);                    
-                    PluginMain.say(player, "Your block queue is full. Wait for items to finish drawing.");
-                    return false;
+            } finally {
+                m_queueWaiters.remove(thread);
+                Thread next = m_queueWaiters.peek();
+                if (next != null) {
+                    LockSupport.unpark(next);
                 }
             }
+        } finally {
+            if (job != null) {
+                job.setThrottled(false);
+            }
+        }
+    }
 
+    /**
+     * Should the producer stop waiting for space on the block queue
+     *
+     * @param job the producer job
+     * @param deadline the wait deadline
+     * @return
+     */
+    private boolean isWaitAborted(BlockPlacerJobEntry job, long deadline) {
+        if (Thread.currentThread().isInterrupted() || m_shutdown
+                || (job != null && job.isReleased())) {
             return true;
         }
+        return System.nanoTime() >= deadline;
+    }
+
+    /**
+     * Should the async thread stop waiting for the answer to its get request
+     *
+     * @param entry the get request
+     * @return
+     */
+    public boolean isGetAborted(BlockPlacerEntry entry) {
+        if (Thread.currentThread().isInterrupted() || m_shutdown) {
+            return true;
+        }
+
+        final String player = entry.getEditSession().getPlayer();
+        final PlayerEntry playerEntry = player != null ? m_blocks.get(player) : null;
+        final BlockPlacerJobEntry job = playerEntry != null ? playerEntry.findJob(entry.getJobId()) : null;
+        return job != null && job.isReleased();
+    }
+
+    /**
+     * Register the block location in the physics watch unless the block is
+     * inside the region frozen by its job
+     *
+     * @param entry the queued entry
+     */
+    private void trackPhysics(BlockPlacerBlockEntry entry) {
+        World world = entry.getEditSession().getCBWorld();
+        if (world == null) {
+            return;
+        }
+
+        BlockPlacerJobEntry job = entry.getJob();
+        PhysicsRegion region = job != null ? job.getPhysicsRegion() : null;
+        if (region != null && region.contains(entry.getLocation())) {
+            return;
+        }
+
+        m_physicsWatcher.addLocation(world.getName(), entry.getLocation());
+        entry.setPhysicsTracked(true);
+    }
+
+    /**
+     * Freeze the physics in the job region until the job is removed. The job
+     * needs to be queued before its region is frozen.
+     *
+     * @param player the player
+     * @param job the job
+     * @param world the world name
+     * @param region the job region
+     */
+    public void freezeRegion(String player, BlockPlacerJobEntry job, String world, Region region) {
+        if (job == null || world == null || region == null
+                || job.getPhysicsRegion() != null) {
+            return;
+        }
+
+        PlayerEntry playerEntry = m_blocks.get(player);
+        if (playerEntry == null || playerEntry.getJob(job.getJobId()) != job) {
+            return;
+        }
+
+        job.setPhysicsRegion(m_physicsWatcher.addRegion(world,
+                region.getMinimumPoint(), region.getMaximumPoint()));
+
+        //The job might have been removed in the meantime
+        if (playerEntry.getJob(job.getJobId()) != job) {
+            m_physicsWatcher.removeRegion(job.takePhysicsRegion());
+            job.releaseProducer();
+        }
     }
 
     /**
@@ -611,7 +1355,7 @@ public class BlockPlacer implements Runnable {
         int newSize = 0;
         int result = 0;
         PlayerEntry playerEntry;
-        Queue<BlockPlacerEntry> queue;
+        BlockQueue queue;
         BlockPlacerJobEntry job;
         synchronized (this) {
             if (!m_blocks.containsKey(player)) {
@@ -628,36 +1372,33 @@ public class BlockPlacer implements Runnable {
             playerEntry.removeJob(job);
             onJobRemoved(job);
         }
+        //The job is released, no new job blocks are queued from now on
+        job.waitForProducers();
         waitForJob(job);
         synchronized (this) {
-            Queue<BlockPlacerEntry> filtered = new ArrayDeque<BlockPlacerEntry>();
             synchronized (queue) {
                 for (BlockPlacerEntry entry : queue) {
                     if (entry.getJobId() == jobId) {
                         if (entry instanceof BlockPlacerBlockEntry) {
-                            World world = entry.getEditSession().getCBWorld();
-                            if (world != null) {
-                                m_physicsWatcher.removeLocation(world.getName(), ((BlockPlacerBlockEntry) entry).getLocation());
-                            }
+                            playerEntry.removePendingWrite((BlockPlacerBlockEntry) entry);
+                            playerEntry.removeOverlayWrite((BlockPlacerBlockEntry) entry);
+                            ((BlockPlacerBlockEntry) entry).releasePhysics(m_physicsWatcher);
                         } else if (entry instanceof BlockPlacerJobEntry) {
                             BlockPlacerJobEntry jobEntry = (BlockPlacerJobEntry) entry;
                             playerEntry.removeJob(jobEntry);
                             onJobRemoved(jobEntry);
                         }
-                    } else {
-                        filtered.add(entry);
                     }
                 }
+                result = queue.removeJob(jobId);
             }
 
-            newSize = filtered.size();
-            result = queue.size() - filtered.size();
-            if (newSize > 0) {
-                playerEntry.updateQueue(filtered);
-            } else {
+            newSize = playerEntry.updateQueueSize(-result);
+            m_queueSize.addAndGet(-result);
+            if (newSize == 0 && playerEntry.tryRemove()) {
                 m_blocks.remove(player);
-                Player p = PluginMain.getPlayer(player);
-                if (PermissionManager.isAllowed(p, PermissionManager.Perms.ProgressBar)) {
+                Player p = getPlayer(player);
+                if (m_playerManager.isAllowed(player, PermissionManager.Perms.ProgressBar)) {
                     m_barAPI.disableMessage(p);
                 }
             }
@@ -679,40 +1420,49 @@ public class BlockPlacer implements Runnable {
      * @param player
      */
     public int purge(String player) {
-        int result = 0;
+        final PlayerEntry playerEntry;
         synchronized (this) {
-            if (m_blocks.containsKey(player)) {
-                PlayerEntry playerEntry = m_blocks.get(player);
-                Queue<BlockPlacerEntry> queue = playerEntry.getQueue();
-                synchronized (queue) {
-                    for (BlockPlacerEntry entry : queue) {
-                        if (entry instanceof BlockPlacerBlockEntry) {
-                            World world = entry.getEditSession().getCBWorld();
-                            if (world != null) {
-                                m_physicsWatcher.removeLocation(world.getName(), ((BlockPlacerBlockEntry) entry).getLocation());
-                            }
-                        } else if (entry instanceof BlockPlacerJobEntry) {
-                            BlockPlacerJobEntry jobEntry = (BlockPlacerJobEntry) entry;
-                            playerEntry.removeJob(jobEntry);
-                            onJobRemoved(jobEntry);
-                        }
+            m_lockedQueues.remove(player);
+            playerEntry = m_blocks.remove(player);
+            if (playerEntry == null) {
+                return 0;
+            }
+            //New producers create a new player entry
+            playerEntry.markRemoved();
+        }
+
+        //The producers hold the entry only while adding a single entry, they
+        //are waited for without the block placer lock
+        playerEntry.remove();
+
+        int result;
+        synchronized (this) {
+            BlockQueue queue = playerEntry.getQueue();
+            synchronized (queue) {
+                for (BlockPlacerEntry entry : queue) {
+                    if (entry instanceof BlockPlacerBlockEntry) {
+                        ((BlockPlacerBlockEntry) entry).releasePhysics(m_physicsWatcher);
+                    } else if (entry instanceof BlockPlacerJobEntry) {
+                        BlockPlacerJobEntry jobEntry = (BlockPlacerJobEntry) entry;
+                        playerEntry.removeJob(jobEntry);
+                        onJobRemoved(jobEntry);
                     }
                 }
+            }
 
-                Collection<BlockPlacerJobEntry> jobs = playerEntry.getJobs();
-                for (BlockPlacerJobEntry job : jobs.toArray(new BlockPlacerJobEntry[0])) {
-                    playerEntry.removeJob(job.getJobId());
-                    onJobRemoved(job);
-                }
-                result = queue.size();
-                m_blocks.remove(player);
-                Player p = PluginMain.getPlayer(player);
-                if (PermissionManager.isAllowed(p, PermissionManager.Perms.ProgressBar)) {
-                    m_barAPI.disableMessage(p);
-                }
+            Collection<BlockPlacerJobEntry> jobs = playerEntry.getJobs();
+            for (BlockPlacerJobEntry job : jobs.toArray(new BlockPlacerJobEntry[0])) {
+                playerEntry.removeJob(job.getJobId());
+                onJobRemoved(job);
             }
-            if (m_lockedQueues.contains(player)) {
-                m_lockedQueues.remove(player);
+            result = queue.clear();
+            playerEntry.clearPendingWrites();
+            playerEntry.clearOverlays();
+            m_queueSize.addAndGet(-playerEntry.getQueueSize());
+            playerEntry.updateQueueSize(-playerEntry.getQueueSize());
+            Player p = getPlayer(player);
+            if (m_playerManager.isAllowed(player, PermissionManager.Perms.ProgressBar)) {
+                m_barAPI.disableMessage(p);
             }
         }
 
@@ -724,10 +1474,8 @@ public class BlockPlacer implements Runnable {
      */
     public int purgeAll() {
         int result = 0;
-        synchronized (this) {
-            for (String user : getAllPlayers()) {
-                result += purge(user);
-            }
+        for (String user : getAllPlayers()) {
+            result += purge(user);
         }
 
         return result;
@@ -773,7 +1521,7 @@ public class BlockPlacer implements Runnable {
             }
         }
 
-        boolean bypass = PermissionManager.isAllowed(PluginMain.getPlayer(player), PermissionManager.Perms.QueueBypass);
+        boolean bypass = m_playerManager.isAllowed(player, PermissionManager.Perms.QueueBypass);
         return getPlayerMessage(entry, bypass);
     }
 
@@ -800,7 +1548,7 @@ public class BlockPlacer implements Runnable {
         double time = 0;
 
         if (player != null) {
-            blocks = player.getQueue().size();
+            blocks = player.getQueueSize();
             speed = player.getSpeed();
         }
         if (speed > 0) {
@@ -828,12 +1576,12 @@ public class BlockPlacer implements Runnable {
         HashSet<String> result = new HashSet<String>(playerNames.length);
 
         for (String login : playerNames) {
-            Player player = PluginMain.getPlayer(login);
+            Player player = getPlayer(login);
             if (player == null) {
                 continue;
             }
 
-            if (PermissionManager.isAllowed(player, PermissionManager.Perms.QueueVip)
+            if (m_playerManager.isAllowed(login, PermissionManager.Perms.QueueVip)
                     && !result.contains(login)) {
                 result.add(login);
             }
@@ -861,11 +1609,35 @@ public class BlockPlacer implements Runnable {
     }
 
     /**
-     * Add new get block task (high priority tasks!)
+     * Create the queued writes overlay for the job
+     *
+     * @param player
+     * @param jobId
+     * @return
+     */
+    public WriteOverlay createOverlay(String player, int jobId) {
+        return getPlayerEntry(player).createOverlay(jobId);
+    }
+
+    /**
+     * Remove the queued writes overlay of the job
+     *
+     * @param player
+     * @param jobId
+     */
+    public void removeOverlay(String player, int jobId) {
+        PlayerEntry playerEntry = m_blocks.get(player);
+        if (playerEntry != null) {
+            playerEntry.removeOverlay(jobId);
+        }
+    }
+
+    /**
+     * Add new get block or get chunks task (high priority tasks!)
      *
      * @param block
      */
-    public void addGetTask(BlockPlacerGetBlockEntry block) {
+    public void addGetTask(BlockPlacerEntry block) {
         synchronized (m_getBlocks) {
             m_getBlocks.add(block);
         }
@@ -873,6 +1645,56 @@ public class BlockPlacer implements Runnable {
         startGetTask();
     }
 
+    /**
+     * Get the bukkit player, known players are taken from the player manager
+     *
+     * @param player
+     * @return
+     */
+    private Player getPlayer(String player) {
+        PlayerWrapper wrapper = m_playerManager.findPlayer(player);
+        return wrapper != null ? wrapper.getPlayer() : PluginMain.getPlayer(player);
+    }
+
+    /**
+     * Get the number of entries in all player queues
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return m_queueSize.get();
+    }
+
+    /**
+     * Get the average number of chunks touched per 1000 placed blocks
+     *
+     * @return
+     */
+    public double getChunksPerThousandBlocks() {
+        if (m_statsBlocks == 0) {
+            return 0;
+        }
+        return 1000.0 * m_statsChunks / m_statsBlocks;
+    }
+
+    /**
+     * Get the number of queued writes dropped by the coalescing
+     *
+     * @return
+     */
+    public long getCoalescedBlocks() {
+        return m_statsCoalesced;
+    }
+
+    /**
+     * Get the number of queued writes that did not change the world
+     *
+     * @return
+     */
+    public long getUnchangedBlocks() {
+        return m_statsUnchanged;
+    }
+
     /**
      * Is this thread the main bukkit thread
      *
@@ -896,7 +1718,7 @@ public class BlockPlacer implements Runnable {
 
         if (entry != null) {
             jobs = entry.getJobs().size();
-            blocks = entry.getQueue().size();
+            blocks = entry.getQueueSize();
             speed = entry.getSpeed();
         }
         if (speed > 0) {
@@ -918,6 +1740,11 @@ public class BlockPlacer implements Runnable {
      * @param job
      */
     private void onJobRemoved(BlockPlacerJobEntry job) {
+        if (job != null) {
+            m_physicsWatcher.removeRegion(job.takePhysicsRegion());
+            job.releaseProducer();
+        }
+
         synchronized (m_jobAddedListeners) {
             for (IBlockPlacerListener listener : m_jobAddedListeners) {
                 listener.jobRemoved(job);
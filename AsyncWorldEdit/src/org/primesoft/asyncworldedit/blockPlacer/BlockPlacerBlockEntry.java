@@ -26,6 +26,8 @@ package org.primesoft.asyncworldedit.blockPlacer;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import org.bukkit.World;
+import org.primesoft.asyncworldedit.PhysicsWatch;
+import org.primesoft.asyncworldedit.utils.PositionPacker;
 import org.primesoft.asyncworldedit.worldedit.AsyncEditSession;
 
 /**
@@ -33,20 +35,129 @@ import org.primesoft.asyncworldedit.worldedit.AsyncEditSession;
  * @author Prime
  */
 public class BlockPlacerBlockEntry extends BlockPlacerEntry {
-    private final Vector m_location;
-    private final BaseBlock m_newBlock;
+    /**
+     * Packed block of the blocks that can not be packed (tile entities), the
+     * packed blocks are stored as (type &lt;&lt; 4) | data
+     */
+    final static int NO_BLOCK = -1;
+
+    private Vector m_location;
+    private BaseBlock m_newBlock;
+    /**
+     * The packed location, valid for the entries created from the block queue
+     */
+    private final long m_packedLocation;
+    /**
+     * The packed block, NO_BLOCK if the block is stored in m_newBlock
+     */
+    private final int m_packedBlock;
+    /**
+     * Is the block location registered in the physics watch
+     */
+    private boolean m_physicsTracked;
+    /**
+     * The entry job, set when the entry is queued
+     */
+    private BlockPlacerJobEntry m_job;
 
     public Vector getLocation() {
+        if (m_location == null) {
+            m_location = PositionPacker.toVector(m_packedLocation);
+        }
         return m_location;
     }
 
+    /**
+     * Get the packed block location
+     *
+     * @return
+     */
+    public long getPackedLocation() {
+        if (m_location == null) {
+            return m_packedLocation;
+        }
+        return PositionPacker.pack(m_location);
+    }
+
     public BaseBlock getNewBlock() {
+        if (m_newBlock == null) {
+            m_newBlock = new BaseBlock(m_packedBlock >> 4, m_packedBlock & 0xf);
+        }
         return m_newBlock;
     }
 
+    /**
+     * Get the packed block, the block is stored as (type &lt;&lt; 4) | data
+     *
+     * @return -1 if the block is not a plain block (tile entities)
+     */
+    public int getPackedBlock() {
+        if (m_packedBlock != NO_BLOCK) {
+            return m_packedBlock;
+        }
+        if (m_newBlock.getClass() != BaseBlock.class) {
+            return NO_BLOCK;
+        }
+        return (m_newBlock.getType() << 4) | (m_newBlock.getData() & 0xf);
+    }
+
+    /**
+     * Is the block location registered in the physics watch
+     *
+     * @return
+     */
+    public boolean isPhysicsTracked() {
+        return m_physicsTracked;
+    }
+
+    /**
+     * Mark the block location as registered in the physics watch
+     *
+     * @param tracked
+     */
+    public void setPhysicsTracked(boolean tracked) {
+        m_physicsTracked = tracked;
+    }
+
+    /**
+     * Remove the block location from the physics watch, the location is
+     * released only once
+     *
+     * @param physicsWatcher
+     */
+    public void releasePhysics(PhysicsWatch physicsWatcher) {
+        if (!m_physicsTracked) {
+            return;
+        }
+
+        final World world = m_editSession.getCBWorld();
+        m_physicsTracked = false;
+        if (world != null) {
+            physicsWatcher.removeLocation(world.getName(), getLocation());
+        }
+    }
+
+    /**
+     * Get the entry job
+     *
+     * @return null if the job was not found when the entry was queued
+     */
+    public BlockPlacerJobEntry getJob() {
+        return m_job;
+    }
+
+    /**
+     * Set the entry job
+     *
+     * @param job
+     */
+    public void setJob(BlockPlacerJobEntry job) {
+        m_job = job;
+    }
+
     @Override
-    public boolean isDemanding() {
-        return false;
+    public BlockPlacerEntryType getType() {
+        return BlockPlacerEntryType.Block;
     }
     
     
@@ -56,15 +167,35 @@ public class BlockPlacerBlockEntry extends BlockPlacerEntry {
         super(editSession, jobId);
         m_location = location;
         m_newBlock = newBlock;
+        m_packedLocation = 0;
+        m_packedBlock = NO_BLOCK;
+    }
+
+    /**
+     * Create entry from the packed block queue values, the location and the
+     * block objects are created on first use (the dropped entries never
+     * create them)
+     *
+     * @param editSession
+     * @param jobId
+     * @param packedLocation the packed location
+     * @param packedBlock the packed block, -1 if newBlock is used
+     * @param newBlock the not packed block (null for packed blocks)
+     */
+    BlockPlacerBlockEntry(AsyncEditSession editSession, int jobId,
+            long packedLocation, int packedBlock, BaseBlock newBlock) {
+        super(editSession, jobId);
+        m_packedLocation = packedLocation;
+        m_packedBlock = packedBlock;
+        m_newBlock = newBlock;
     }
 
     @Override
-    public void Process(BlockPlacer bp) {        
-        final World world = m_editSession.getCBWorld();
-        
-        m_editSession.doRawSetBlock(m_location, m_newBlock);
-        if (world != null) {
-            bp.getPhysicsWatcher().removeLocation(world.getName(), m_location);
+    public void Process(BlockPlacer bp) {
+        try {
+            m_editSession.doRawSetBlock(getLocation(), getNewBlock());
+        } finally {
+            releasePhysics(bp.getPhysicsWatcher());
         }
     }
 }
@@ -57,8 +57,8 @@ public class BlockPlacerEntityEntry extends BlockPlacerEntry {
     }
     
     @Override
-    public boolean isDemanding() {
-        return true;
+    public BlockPlacerEntryType getType() {
+        return BlockPlacerEntryType.Entity;
     }
 
     @Override
@@ -34,10 +34,10 @@ public abstract class BlockPlacerEntry {
     protected final AsyncEditSession m_editSession;
 
     /**
-     * Is this task demanding
+     * The entry type, used to get the entry placing cost
      * @return 
      */
-    public abstract boolean isDemanding();
+    public abstract BlockPlacerEntryType getType();
     
     /**
      * The job ID
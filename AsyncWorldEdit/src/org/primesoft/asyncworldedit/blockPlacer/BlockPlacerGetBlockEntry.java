@@ -25,7 +25,6 @@ package org.primesoft.asyncworldedit.blockPlacer;
 
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.blocks.BaseBlock;
-import org.bukkit.World;
 import org.primesoft.asyncworldedit.worldedit.AsyncEditSession;
 
 /**
@@ -37,10 +36,11 @@ public class BlockPlacerGetBlockEntry extends BlockPlacerEntry {
     private final Vector m_location;
     private final Object m_mutex = new Object();
     private BaseBlock m_result = null;
+    private boolean m_done = false;
 
     @Override
-    public boolean isDemanding() {
-        return false;
+    public BlockPlacerEntryType getType() {
+        return BlockPlacerEntryType.GetBlock;
     }
     
     public Vector getLocation() {
@@ -61,12 +61,56 @@ public class BlockPlacerGetBlockEntry extends BlockPlacerEntry {
         m_location = location;
     }
 
-    @Override
-    public void Process(BlockPlacer bp) {
-        final World world = m_editSession.getCBWorld();       
+    /**
+     * Set the result and wake up the waiting thread
+     *
+     * @param result the block, null if the request failed
+     */
+    public void setResult(BaseBlock result) {
         synchronized (m_mutex) {
-            m_result = m_editSession.doRawGetBlock(m_location);
+            m_result = result;
+            m_done = true;
             m_mutex.notifyAll();
         }
     }
+
+    /**
+     * Wait for the main thread to answer the request. The wait is aborted
+     * when the thread is interrupted, the block placer is stopped or the job
+     * is canceled.
+     *
+     * @param bp the block placer
+     * @return the block
+     * @throws IllegalStateException if the request failed or was aborted
+     */
+    public BaseBlock waitForResult(BlockPlacer bp) {
+        final long WAIT_TIME = 100;
+        synchronized (m_mutex) {
+            while (!m_done) {
+                if (bp.isGetAborted(this)) {
+                    throw new IllegalStateException("Get block request aborted");
+                }
+                try {
+                    m_mutex.wait(WAIT_TIME);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if (m_result == null) {
+                throw new IllegalStateException("Unable to get the block on the main thread");
+            }
+            return m_result;
+        }
+    }
+
+    @Override
+    public void Process(BlockPlacer bp) {
+        BaseBlock result = null;
+        try {
+            result = m_editSession.doRawGetBlock(m_location);
+        } finally {
+            setResult(result);
+        }
+    }
 }
@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.blockPlacer;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.primesoft.asyncworldedit.worldedit.AsyncEditSession;
+
+/**
+ * Captures a batch of chunk snapshots on the main thread
+ *
+ * @author SBPrime
+ */
+public class BlockPlacerGetChunksEntry extends BlockPlacerEntry {
+
+    /**
+     * Chunk X coordinates
+     */
+    private final int[] m_chunkX;
+
+    /**
+     * Chunk Z coordinates
+     */
+    private final int[] m_chunkZ;
+
+    /**
+     * Overlay of the job that requested the snapshots (may be null)
+     */
+    private final WriteOverlay m_overlay;
+
+    private final Object m_mutex = new Object();
+
+    private ChunkSnapshot[] m_result = null;
+
+    private boolean m_done = false;
+
+    @Override
+    public BlockPlacerEntryType getType() {
+        return BlockPlacerEntryType.GetChunks;
+    }
+
+    public Object getMutex() {
+        return m_mutex;
+    }
+
+    /**
+     * The captured snapshots (in the requested order), null until processed
+     *
+     * @return
+     */
+    public ChunkSnapshot[] getResult() {
+        return m_result;
+    }
+
+    public BlockPlacerGetChunksEntry(AsyncEditSession editSession,
+            int jobId, int[] chunkX, int[] chunkZ, WriteOverlay overlay) {
+        super(editSession, jobId);
+        m_chunkX = chunkX;
+        m_chunkZ = chunkZ;
+        m_overlay = overlay;
+    }
+
+    /**
+     * Wait for the main thread to capture the snapshots. The wait is aborted
+     * when the thread is interrupted, the block placer is stopped or the job
+     * is canceled.
+     *
+     * @param bp the block placer
+     * @return the captured snapshots
+     * @throws IllegalStateException if the capture failed or was aborted
+     */
+    public ChunkSnapshot[] waitForResult(BlockPlacer bp) {
+        final long WAIT_TIME = 100;
+        synchronized (m_mutex) {
+            while (!m_done) {
+                if (bp.isGetAborted(this)) {
+                    throw new IllegalStateException("Get chunks request aborted");
+                }
+                try {
+                    m_mutex.wait(WAIT_TIME);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if (m_result == null) {
+                throw new IllegalStateException("Unable to capture the chunks on the main thread");
+            }
+            return m_result;
+        }
+    }
+
+    @Override
+    public void Process(BlockPlacer bp) {
+        final World world = m_editSession.getCBWorld();
+        final ChunkSnapshot[] result = new ChunkSnapshot[m_chunkX.length];
+        boolean done = false;
+        try {
+            if (world != null) {
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = world.getChunkAt(m_chunkX[i], m_chunkZ[i]).getChunkSnapshot(false, false, false);
+                    if (m_overlay != null) {
+                        m_overlay.captured(m_chunkX[i], m_chunkZ[i]);
+                    }
+                }
+            }
+            done = true;
+        } finally {
+            synchronized (m_mutex) {
+                m_result = done ? result : null;
+                m_done = true;
+                m_mutex.notifyAll();
+            }
+        }
+    }
+}
@@ -25,8 +25,11 @@ package org.primesoft.asyncworldedit.blockPlacer;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import org.bukkit.ChatColor;
 import org.primesoft.asyncworldedit.ConfigProvider;
+import org.primesoft.asyncworldedit.PhysicsRegion;
 import org.primesoft.asyncworldedit.PluginMain;
 import org.primesoft.asyncworldedit.worldedit.AsyncEditSession;
 import org.primesoft.asyncworldedit.worldedit.CancelabeEditSession;
@@ -70,14 +73,67 @@ public class BlockPlacerJobEntry extends BlockPlacerEntry {
      */
     private boolean m_taskDone;
 
+    /**
+     * Number of queued writes dropped by the coalescing
+     */
+    private final AtomicInteger m_coalesced = new AtomicInteger();
+
+    /**
+     * Number of placed blocks that changed the world
+     */
+    private final AtomicInteger m_changed = new AtomicInteger();
+
+    /**
+     * Number of queued writes skipped because the world already contained
+     * the block
+     */
+    private final AtomicInteger m_unchanged = new AtomicInteger();
+
+    /**
+     * The region with frozen physics
+     */
+    private volatile PhysicsRegion m_physicsRegion;
+
+    /**
+     * Number of queued (not placed) job blocks
+     */
+    private final AtomicInteger m_pending = new AtomicInteger();
+
+    /**
+     * Paused producer mutex
+     */
+    private final Object m_pendingMutex = new Object();
+
+    /**
+     * Number of queued job blocks when the paused producer is resumed,
+     * negative if no producer is paused
+     */
+    private volatile int m_resumeAt = -1;
+
+    /**
+     * Is the job removed from the block placer, the paused producer is
+     * resumed
+     */
+    private volatile boolean m_released;
+
+    /**
+     * Number of threads adding the job blocks to the queue
+     */
+    private final AtomicInteger m_producers = new AtomicInteger();
+
+    /**
+     * Is the job preparation paused by the queue backpressure
+     */
+    private volatile boolean m_throttled;
+
     /**
      * All job state changed events
      */
     private final List<IJobEntryListener> m_jobStateChanged;
     
     @Override
-    public boolean isDemanding() {
-        return false;
+    public BlockPlacerEntryType getType() {
+        return BlockPlacerEntryType.Job;
     }
 
     public BlockPlacerJobEntry(String player, int jobId, String name) {
@@ -146,6 +202,252 @@ public class BlockPlacerJobEntry extends BlockPlacerEntry {
         return m_taskDone;
     }
 
+    /**
+     * Number of queued writes dropped by the coalescing
+     *
+     * @return
+     */
+    public int getCoalesced() {
+        return m_coalesced.get();
+    }
+
+    /**
+     * Update the number of queued writes dropped by the coalescing
+     *
+     * @param delta
+     */
+    public void updateCoalesced(int delta) {
+        m_coalesced.addAndGet(delta);
+    }
+
+    /**
+     * Number of placed blocks that changed the world
+     *
+     * @return
+     */
+    public int getChanged() {
+        return m_changed.get();
+    }
+
+    /**
+     * Update the number of placed blocks that changed the world
+     *
+     * @param delta
+     */
+    public void updateChanged(int delta) {
+        m_changed.addAndGet(delta);
+    }
+
+    /**
+     * Number of queued writes skipped because the world already contained
+     * the block
+     *
+     * @return
+     */
+    public int getUnchanged() {
+        return m_unchanged.get();
+    }
+
+    /**
+     * Update the number of skipped unchanged writes
+     *
+     * @param delta
+     */
+    public void updateUnchanged(int delta) {
+        m_unchanged.addAndGet(delta);
+    }
+
+    /**
+     * Get the placed blocks statistics
+     *
+     * @return empty string if no blocks were placed
+     */
+    public String getStatsString() {
+        final int changed = m_changed.get();
+        final int unchanged = m_unchanged.get();
+        final int coalesced = m_coalesced.get();
+        if (changed == 0 && unchanged == 0 && coalesced == 0) {
+            return "";
+        }
+
+        String result = ChatColor.YELLOW + " (" + ChatColor.WHITE + changed
+                + ChatColor.YELLOW + " blocks changed";
+        if (unchanged > 0) {
+            result += ", " + ChatColor.WHITE + unchanged + ChatColor.YELLOW + " unchanged";
+        }
+        if (coalesced > 0) {
+            result += ", " + ChatColor.WHITE + coalesced + ChatColor.YELLOW + " writes coalesced";
+        }
+        return result + ")";
+    }
+
+    /**
+     * Get the region with frozen physics
+     *
+     * @return null if the job does not freeze a region
+     */
+    public PhysicsRegion getPhysicsRegion() {
+        return m_physicsRegion;
+    }
+
+    /**
+     * Set the region with frozen physics
+     *
+     * @param region
+     */
+    public synchronized void setPhysicsRegion(PhysicsRegion region) {
+        m_physicsRegion = region;
+    }
+
+    /**
+     * Get and clear the region with frozen physics
+     *
+     * @return null if the job does not freeze a region
+     */
+    public synchronized PhysicsRegion takePhysicsRegion() {
+        PhysicsRegion result = m_physicsRegion;
+        m_physicsRegion = null;
+        return result;
+    }
+
+    /**
+     * Number of queued (not placed) job blocks
+     *
+     * @return
+     */
+    public int getPending() {
+        return m_pending.get();
+    }
+
+    /**
+     * A job block was queued
+     */
+    public void addPending() {
+        m_pending.incrementAndGet();
+    }
+
+    /**
+     * Job blocks left the queue, the paused producer is resumed when the
+     * number of queued blocks drops to the resume level
+     *
+     * @param count
+     */
+    public void releasePending(int count) {
+        final int pending = m_pending.addAndGet(-count);
+        final int resumeAt = m_resumeAt;
+        if (resumeAt >= 0 && pending <= resumeAt) {
+            synchronized (m_pendingMutex) {
+                m_pendingMutex.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The job is removed from the block placer, the paused producer is
+     * resumed
+     */
+    public void releaseProducer() {
+        m_released = true;
+        synchronized (m_pendingMutex) {
+            m_pendingMutex.notifyAll();
+        }
+    }
+
+    /**
+     * Start adding a job block to the queue
+     *
+     * @return false if the job is removed, the block should not be queued
+     */
+    public boolean enterProducer() {
+        m_producers.incrementAndGet();
+        if (m_released) {
+            m_producers.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stop adding a job block to the queue
+     */
+    public void leaveProducer() {
+        m_producers.decrementAndGet();
+    }
+
+    /**
+     * Wait for the threads that are adding the job blocks to the queue. Once
+     * the job is released no new producer can enter, so after this call no
+     * job block is added to the queue.
+     */
+    public void waitForProducers() {
+        final long WAIT_TIME = 1000000;
+        while (m_producers.get() > 0) {
+            LockSupport.parkNanos(this, WAIT_TIME);
+        }
+    }
+
+    /**
+     * Pause the producer thread if the number of queued job blocks reached
+     * the high water mark. The producer is resumed when the queued blocks
+     * drop to the low water mark or the job is removed.
+     *
+     * @param highWater
+     * @param lowWater
+     */
+    public void waitForPending(int highWater, int lowWater) {
+        if (m_pending.get() < highWater || m_released) {
+            return;
+        }
+
+        final int WAIT_TIME = 100;
+        setThrottled(true);
+        synchronized (m_pendingMutex) {
+            m_resumeAt = lowWater;
+            try {
+                while (m_pending.get() > lowWater && !m_released) {
+                    m_pendingMutex.wait(WAIT_TIME);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                m_resumeAt = -1;
+            }
+        }
+        setThrottled(false);
+    }
+
+    /**
+     * Is the job removed from the block placer
+     *
+     * @return
+     */
+    public boolean isReleased() {
+        return m_released;
+    }
+
+    /**
+     * Is the job preparation paused by the queue backpressure
+     *
+     * @return
+     */
+    public boolean isThrottled() {
+        return m_throttled;
+    }
+
+    /**
+     * Set the job preparation paused by the queue backpressure
+     *
+     * @param throttled
+     */
+    public void setThrottled(boolean throttled) {
+        if (m_throttled == throttled) {
+            return;
+        }
+
+        m_throttled = throttled;
+        callStateChangedEvents();
+    }
+
     /**
      * Async task has finished
      */
@@ -217,6 +519,9 @@ public class BlockPlacerJobEntry extends BlockPlacerEntry {
             case PlacingBlocks:
                 return ChatColor.GREEN + "placing blocks";
             case Preparing:
+                if (m_throttled) {
+                    return ChatColor.GOLD + "throttled";
+                }
                 return ChatColor.RED + "preparing blocks";
             case Waiting:
                 return ChatColor.YELLOW + "waiting";
@@ -251,7 +556,8 @@ public class BlockPlacerJobEntry extends BlockPlacerEntry {
 
         if (ConfigProvider.isTalkative()) {
             PluginMain.say(player, ChatColor.YELLOW + "Job " + toString()
-                    + ChatColor.YELLOW + " - " + getStatusString());
+                    + ChatColor.YELLOW + " - " + getStatusString()
+                    + (m_status == JobStatus.Done ? getStatsString() : ""));
         }
     }
 
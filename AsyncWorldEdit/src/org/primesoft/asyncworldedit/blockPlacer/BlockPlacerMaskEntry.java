@@ -38,8 +38,8 @@ public class BlockPlacerMaskEntry extends BlockPlacerEntry {
     }
     
     @Override
-    public boolean isDemanding() {
-        return false;
+    public BlockPlacerEntryType getType() {
+        return BlockPlacerEntryType.Mask;
     }
 
     public BlockPlacerMaskEntry(AsyncEditSession editSession,
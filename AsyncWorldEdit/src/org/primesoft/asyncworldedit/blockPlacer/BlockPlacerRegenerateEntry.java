@@ -43,8 +43,8 @@ public class BlockPlacerRegenerateEntry extends BlockPlacerEntry {
     }
     
     @Override
-    public boolean isDemanding() {
-        return true;
+    public BlockPlacerEntryType getType() {
+        return BlockPlacerEntryType.Regenerate;
     }
 
     @Override
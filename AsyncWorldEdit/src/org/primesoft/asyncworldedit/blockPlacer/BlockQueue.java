@@ -0,0 +1,756 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.blockPlacer;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.bukkit.World;
+import org.primesoft.asyncworldedit.utils.PositionPacker;
+import org.primesoft.asyncworldedit.worldedit.AsyncEditSession;
+
+/**
+ * Player block queue. Consecutive block entries from the same job are stored
+ * in packed primitive segments (position as long, type and data as int), the
+ * job, the job id and the edit session are stored once per segment and the
+ * physics watch flag as a bit per entry. All other entries are stored as they
+ * are.
+ *
+ * The queue is a lock free multiple producer, single consumer queue. Each
+ * producer thread fills its own open block segment, the segments are linked
+ * using CAS. The consumer methods (poll, removeJob, clear and iterating) are
+ * synchronized on the queue, the producers never take the queue lock.
+ *
+ * In the chunk grouped mode the queue reads ahead a window of block entries
+ * and hands them out chunk by chunk. Non block entries act as barriers, all
+ * blocks queued before them are placed first.
+ *
+ * @author SBPrime
+ */
+public class BlockQueue implements Iterable<BlockPlacerEntry> {
+
+    /**
+     * Size of the block segment
+     */
+    private static final int SEGMENT_MAX = 4096;
+
+    /**
+     * Block id used for blocks that can not be packed
+     */
+    private static final int COMPLEX_BLOCK = BlockPlacerBlockEntry.NO_BLOCK;
+
+    /**
+     * Queue segment
+     */
+    private static abstract class Segment {
+
+        /**
+         * Next segment, set only once by the producers (CAS) and changed by
+         * the consumer only when not null
+         */
+        final AtomicReference<Segment> m_next = new AtomicReference<Segment>();
+
+        /**
+         * The producer thread
+         */
+        final Thread m_owner;
+
+        /**
+         * The job ID
+         */
+        final int m_jobId;
+
+        /**
+         * No more entries are going to be added to this segment
+         */
+        volatile boolean m_closed;
+
+        Segment(Thread owner, int jobId) {
+            m_owner = owner;
+            m_jobId = jobId;
+        }
+
+        /**
+         * Index of the first not consumed entry
+         */
+        abstract int start();
+
+        /**
+         * Number of entries written to the segment
+         */
+        abstract int end();
+
+        abstract BlockPlacerEntry poll();
+
+        abstract BlockPlacerEntry get(int index);
+
+        /**
+         * Drop all not consumed entries
+         *
+         * @return number of dropped entries
+         */
+        abstract int drop();
+
+        int available() {
+            return end() - start();
+        }
+    }
+
+    /**
+     * Segment containing single not packed entry
+     */
+    private static class EntrySegment extends Segment {
+
+        private BlockPlacerEntry m_entry;
+
+        EntrySegment(BlockPlacerEntry entry) {
+            super(Thread.currentThread(), entry != null ? entry.getJobId() : -1);
+            m_entry = entry;
+            m_closed = true;
+        }
+
+        @Override
+        int start() {
+            return m_entry == null ? 1 : 0;
+        }
+
+        @Override
+        int end() {
+            return 1;
+        }
+
+        @Override
+        BlockPlacerEntry poll() {
+            BlockPlacerEntry result = m_entry;
+            m_entry = null;
+            return result;
+        }
+
+        @Override
+        BlockPlacerEntry get(int index) {
+            return m_entry;
+        }
+
+        @Override
+        int drop() {
+            int result = m_entry != null ? 1 : 0;
+            m_entry = null;
+            return result;
+        }
+    }
+
+    /**
+     * Segment containing packed block entries of one job, written by a single
+     * producer thread. The arrays are allocated with the maximum segment size
+     * and never replaced, so the consumer always reads the arrays the entries
+     * were published in.
+     */
+    private static class BlockSegment extends Segment {
+
+        private final AsyncEditSession m_editSession;
+        /**
+         * The segment job (may be null)
+         */
+        private final BlockPlacerJobEntry m_job;
+        private final long[] m_positions;
+        private final int[] m_blocks;
+        /**
+         * Blocks that can not be packed (tile entities), allocated on demand
+         * with the maximum segment size
+         */
+        private BaseBlock[] m_complex;
+        /**
+         * Entries registered in the physics watch (bit set), allocated on
+         * demand
+         */
+        private long[] m_tracked;
+        /**
+         * Number of written entries (producer)
+         */
+        private volatile int m_count;
+        /**
+         * Number of consumed entries (consumer)
+         */
+        private int m_read;
+
+        BlockSegment(BlockPlacerBlockEntry entry) {
+            super(Thread.currentThread(), entry.getJobId());
+            m_editSession = entry.getEditSession();
+            m_job = entry.getJob();
+            m_positions = new long[SEGMENT_MAX];
+            m_blocks = new int[SEGMENT_MAX];
+        }
+
+        boolean canAdd(BlockPlacerBlockEntry entry) {
+            return m_editSession == entry.getEditSession()
+                    && m_jobId == entry.getJobId()
+                    && m_job == entry.getJob()
+                    && !m_closed
+                    && m_count < SEGMENT_MAX;
+        }
+
+        void add(BlockPlacerBlockEntry entry) {
+            final int count = m_count;
+            final int id = entry.getPackedBlock();
+            m_positions[count] = entry.getPackedLocation();
+            m_blocks[count] = id;
+            if (id == COMPLEX_BLOCK) {
+                if (m_complex == null) {
+                    m_complex = new BaseBlock[SEGMENT_MAX];
+                }
+                m_complex[count] = entry.getNewBlock();
+            }
+            if (entry.isPhysicsTracked()) {
+                if (m_tracked == null) {
+                    m_tracked = new long[SEGMENT_MAX >> 6];
+                }
+                m_tracked[count >> 6] |= 1L << count;
+            }
+
+            //Publish the entry
+            m_count = count + 1;
+        }
+
+        @Override
+        int start() {
+            return m_read;
+        }
+
+        @Override
+        int end() {
+            return m_count;
+        }
+
+        @Override
+        BlockPlacerEntry poll() {
+            if (m_read >= m_count) {
+                return null;
+            }
+            BlockPlacerEntry result = get(m_read);
+            if (m_complex != null) {
+                m_complex[m_read] = null;
+            }
+            m_read++;
+            return result;
+        }
+
+        @Override
+        BlockPlacerEntry get(int index) {
+            final int id = m_blocks[index];
+            BlockPlacerBlockEntry result = new BlockPlacerBlockEntry(m_editSession, m_jobId,
+                    m_positions[index], id, id == COMPLEX_BLOCK ? m_complex[index] : null);
+            result.setJob(m_job);
+            result.setPhysicsTracked(m_tracked != null && (m_tracked[index >> 6] & (1L << index)) != 0);
+            return result;
+        }
+
+        @Override
+        int drop() {
+            final int count = m_count;
+            final int result = count - m_read;
+            if (m_complex != null) {
+                for (int i = m_read; i < count; i++) {
+                    m_complex[i] = null;
+                }
+            }
+            m_read = count;
+            return result;
+        }
+    }
+
+    /**
+     * Chunk bucket key
+     */
+    static class ChunkKey {
+
+        private final String m_world;
+        private final int m_x;
+        private final int m_z;
+
+        ChunkKey(String world, int x, int z) {
+            m_world = world;
+            m_x = x;
+            m_z = z;
+        }
+
+        @Override
+        public int hashCode() {
+            return (m_world != null ? m_world.hashCode() : 0) * 31 * 31 + m_x * 31 + m_z;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ChunkKey)) {
+                return false;
+            }
+            ChunkKey other = (ChunkKey) obj;
+            return m_x == other.m_x && m_z == other.m_z
+                    && (m_world == null ? other.m_world == null : m_world.equals(other.m_world));
+        }
+    }
+
+    /**
+     * The list head (dummy segment)
+     */
+    private final Segment m_head;
+
+    /**
+     * Last segment (may lag behind)
+     */
+    private final AtomicReference<Segment> m_tail;
+
+    /**
+     * The open block segments of the producer threads. The map is owned by
+     * the queue, so the segments are released with the queue.
+     */
+    private final ConcurrentHashMap<Thread, BlockSegment> m_open
+            = new ConcurrentHashMap<Thread, BlockSegment>();
+
+    /**
+     * Number of entries in the queue (including the grouped ones)
+     */
+    private final AtomicInteger m_size = new AtomicInteger();
+
+    /**
+     * Block entries read ahead, grouped by chunk
+     */
+    private final LinkedHashMap<ChunkKey, ArrayDeque<BlockPlacerEntry>> m_buckets
+            = new LinkedHashMap<ChunkKey, ArrayDeque<BlockPlacerEntry>>();
+
+    /**
+     * Number of entries stored in the chunk buckets
+     */
+    private int m_grouped;
+
+    /**
+     * The entry that stopped the read ahead
+     */
+    private BlockPlacerEntry m_barrier;
+
+    /**
+     * The segment the last entry was polled from (consumer)
+     */
+    private Segment m_current;
+
+    /**
+     * Producers with an open segment found empty during the current segment
+     * scan
+     */
+    private final List<Thread> m_skipped = new ArrayList<Thread>();
+
+    public BlockQueue() {
+        m_head = new EntrySegment(null);
+        m_tail = new AtomicReference<Segment>(m_head);
+    }
+
+    /**
+     * Add new entry to the queue (producer, lock free)
+     *
+     * @param entry
+     */
+    public void add(BlockPlacerEntry entry) {
+        if (entry == null) {
+            return;
+        }
+
+        final Thread thread = Thread.currentThread();
+        BlockSegment segment = m_open.get(thread);
+        if (entry instanceof BlockPlacerBlockEntry) {
+            BlockPlacerBlockEntry blockEntry = (BlockPlacerBlockEntry) entry;
+            m_size.incrementAndGet();
+            if (segment != null && segment.canAdd(blockEntry)) {
+                segment.add(blockEntry);
+                return;
+            }
+
+            if (segment != null) {
+                segment.m_closed = true;
+            }
+            segment = new BlockSegment(blockEntry);
+            segment.add(blockEntry);
+            m_open.put(thread, segment);
+            append(segment);
+        } else {
+            if (segment != null) {
+                segment.m_closed = true;
+                m_open.remove(thread);
+            }
+            m_size.incrementAndGet();
+            append(new EntrySegment(entry));
+        }
+    }
+
+    /**
+     * Close the open block segment of the current producer thread, so the
+     * consumer can unlink it once it is empty. Called when the producer task
+     * ends (producer).
+     */
+    public void closeProducer() {
+        BlockSegment segment = m_open.remove(Thread.currentThread());
+        if (segment != null) {
+            segment.m_closed = true;
+        }
+    }
+
+    /**
+     * Get and remove the first entry
+     *
+     * @return
+     */
+    public synchronized BlockPlacerEntry poll() {
+        BlockPlacerEntry result = pollGrouped();
+        if (result != null) {
+            return result;
+        }
+
+        result = pollSegment();
+        if (result != null) {
+            m_size.decrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Get and remove the next entry, block entries are returned grouped by
+     * chunk
+     *
+     * @param lookahead number of block entries to group
+     * @return
+     */
+    public synchronized BlockPlacerEntry poll(int lookahead) {
+        if (m_grouped == 0 && m_barrier == null) {
+            fillBuckets(lookahead);
+        }
+
+        return poll();
+    }
+
+    /**
+     * Remove all entries of a job, the job segments are closed. The job
+     * producers need to be stopped before (see
+     * BlockPlacerJobEntry.waitForProducers).
+     *
+     * @param jobId
+     * @return number of removed entries
+     */
+    public synchronized int removeJob(int jobId) {
+        int result = 0;
+        Iterator<ArrayDeque<BlockPlacerEntry>> it = m_buckets.values().iterator();
+        while (it.hasNext()) {
+            ArrayDeque<BlockPlacerEntry> bucket = it.next();
+            Iterator<BlockPlacerEntry> bIt = bucket.iterator();
+            while (bIt.hasNext()) {
+                if (bIt.next().getJobId() == jobId) {
+                    bIt.remove();
+                    result++;
+                    m_grouped--;
+                }
+            }
+            if (bucket.isEmpty()) {
+                it.remove();
+            }
+        }
+        if (m_barrier != null && m_barrier.getJobId() == jobId) {
+            m_barrier = null;
+            result++;
+        }
+
+        for (Segment segment = m_head.m_next.get(); segment != null; segment = segment.m_next.get()) {
+            if (segment.m_jobId == jobId) {
+                close(segment);
+                result += segment.drop();
+            }
+        }
+
+        m_size.addAndGet(-result);
+        return result;
+    }
+
+    /**
+     * Remove all entries, all segments are closed. The producers need to be
+     * stopped before (see PlayerEntry.remove).
+     *
+     * @return number of removed entries
+     */
+    public synchronized int clear() {
+        int result = m_grouped + (m_barrier != null ? 1 : 0);
+        m_current = null;
+        m_buckets.clear();
+        m_grouped = 0;
+        m_barrier = null;
+
+        for (Segment segment = m_head.m_next.get(); segment != null; segment = segment.m_next.get()) {
+            close(segment);
+            result += segment.drop();
+        }
+
+        m_size.addAndGet(-result);
+        return result;
+    }
+
+    /**
+     * Close the segment and detach it from its producer (consumer)
+     *
+     * @param segment
+     */
+    private void close(Segment segment) {
+        segment.m_closed = true;
+        if (segment instanceof BlockSegment) {
+            m_open.remove(segment.m_owner, segment);
+        }
+    }
+
+    /**
+     * Read ahead the block entries and put them to the chunk buckets
+     *
+     * @param lookahead
+     */
+    private void fillBuckets(int lookahead) {
+        while (m_grouped < lookahead) {
+            BlockPlacerEntry entry = pollSegment();
+            if (entry == null) {
+                return;
+            }
+            if (!(entry instanceof BlockPlacerBlockEntry)) {
+                m_barrier = entry;
+                return;
+            }
+
+            BlockPlacerBlockEntry blockEntry = (BlockPlacerBlockEntry) entry;
+            World world = blockEntry.getEditSession().getCBWorld();
+            long location = blockEntry.getPackedLocation();
+            ChunkKey key = new ChunkKey(world != null ? world.getName() : null,
+                    PositionPacker.getX(location) >> 4, PositionPacker.getZ(location) >> 4);
+            ArrayDeque<BlockPlacerEntry> bucket = m_buckets.get(key);
+            if (bucket == null) {
+                bucket = new ArrayDeque<BlockPlacerEntry>();
+                m_buckets.put(key, bucket);
+            }
+            bucket.add(entry);
+            m_grouped++;
+        }
+    }
+
+    /**
+     * Get the next entry from the chunk buckets or the barrier
+     *
+     * @return
+     */
+    private BlockPlacerEntry pollGrouped() {
+        if (m_grouped > 0) {
+            Iterator<ArrayDeque<BlockPlacerEntry>> it = m_buckets.values().iterator();
+            ArrayDeque<BlockPlacerEntry> bucket = it.next();
+            BlockPlacerEntry result = bucket.poll();
+            if (bucket.isEmpty()) {
+                it.remove();
+            }
+            m_grouped--;
+            m_size.decrementAndGet();
+            return result;
+        }
+
+        if (m_barrier != null) {
+            BlockPlacerEntry result = m_barrier;
+            m_barrier = null;
+            m_size.decrementAndGet();
+            return result;
+        }
+
+        return null;
+    }
+
+    /**
+     * Get and remove the first available entry from the segments, the queue
+     * size is not updated. The entries are taken from the current segment
+     * until it is empty, only then the segments are scanned from the head.
+     *
+     * Open segments that are empty are skipped during the scan. A producer
+     * can fill and close such a segment and append a new one while the scan
+     * is running, so no later segment of a skipped producer is used and the
+     * order of the entries of a single producer is kept. The current segment
+     * is always the first segment of its producer that has entries.
+     *
+     * @return
+     */
+    private BlockPlacerEntry pollSegment() {
+        final Segment current = m_current;
+        if (current != null && current.available() > 0) {
+            return current.poll();
+        }
+        m_current = null;
+        m_skipped.clear();
+
+        Segment prev = m_head;
+        Segment segment = prev.m_next.get();
+        while (segment != null) {
+            final Segment next = segment.m_next.get();
+            //Read the closed flag first, after that the segment size is final
+            final boolean closed = segment.m_closed;
+            if (segment.available() > 0) {
+                if (!m_skipped.contains(segment.m_owner)) {
+                    m_current = segment;
+                    return segment.poll();
+                }
+            } else if (closed) {
+                if (next != null) {
+                    //Only segments with a successor are unlinked, the producers
+                    //append only to the last segment
+                    prev.m_next.set(next);
+                    segment = next;
+                    continue;
+                }
+            } else if (!m_skipped.contains(segment.m_owner)) {
+                m_skipped.add(segment.m_owner);
+            }
+
+            prev = segment;
+            segment = next;
+        }
+
+        return null;
+    }
+
+    /**
+     * Number of queued entries
+     *
+     * @return
+     */
+    public int size() {
+        return m_size.get();
+    }
+
+    public boolean isEmpty() {
+        return m_size.get() <= 0;
+    }
+
+    /**
+     * Iterate over all queued entries. The block entries are unpacked on the
+     * fly. The caller needs to synchronize on the queue.
+     *
+     * @return
+     */
+    @Override
+    public Iterator<BlockPlacerEntry> iterator() {
+        if (m_grouped == 0 && m_barrier == null) {
+            return segmentIterator();
+        }
+
+        final List<BlockPlacerEntry> grouped = new ArrayList<BlockPlacerEntry>(m_grouped + 1);
+        for (ArrayDeque<BlockPlacerEntry> bucket : m_buckets.values()) {
+            grouped.addAll(bucket);
+        }
+        if (m_barrier != null) {
+            grouped.add(m_barrier);
+        }
+
+        final Iterator<BlockPlacerEntry> first = grouped.iterator();
+        final Iterator<BlockPlacerEntry> second = segmentIterator();
+        return new Iterator<BlockPlacerEntry>() {
+            @Override
+            public boolean hasNext() {
+                return first.hasNext() || second.hasNext();
+            }
+
+            @Override
+            public BlockPlacerEntry next() {
+                return first.hasNext() ? first.next() : second.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Iterate over the entries stored in the segments
+     *
+     * @return
+     */
+    private Iterator<BlockPlacerEntry> segmentIterator() {
+        return new Iterator<BlockPlacerEntry>() {
+            private Segment m_segment = m_head;
+            private int m_pos = 0;
+            private int m_end = 0;
+
+            @Override
+            public boolean hasNext() {
+                skipEmpty();
+                return m_segment != null;
+            }
+
+            @Override
+            public BlockPlacerEntry next() {
+                skipEmpty();
+                if (m_segment == null) {
+                    throw new NoSuchElementException();
+                }
+                BlockPlacerEntry result = m_segment.get(m_pos);
+                m_pos++;
+                return result;
+            }
+
+            private void skipEmpty() {
+                while (m_segment != null && m_pos >= m_end) {
+                    m_segment = m_segment.m_next.get();
+                    if (m_segment != null) {
+                        m_pos = m_segment.start();
+                        m_end = m_segment.end();
+                    }
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Append the segment to the end of the list (lock free)
+     *
+     * @param segment
+     */
+    private void append(Segment segment) {
+        while (true) {
+            final Segment tail = m_tail.get();
+            final Segment next = tail.m_next.get();
+            if (next != null) {
+                m_tail.compareAndSet(tail, next);
+            } else if (tail.m_next.compareAndSet(null, segment)) {
+                m_tail.compareAndSet(tail, segment);
+                return;
+            }
+        }
+    }
+}
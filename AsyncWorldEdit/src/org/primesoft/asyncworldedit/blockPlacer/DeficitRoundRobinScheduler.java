@@ -0,0 +1,165 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.blockPlacer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.primesoft.asyncworldedit.ConfigProvider;
+import org.primesoft.asyncworldedit.PlayerManager;
+
+/**
+ * Deficit round robin scheduler. In each round every player gets a quantum of
+ * the run budget multiplied by the player weight and places entries until the
+ * quantum is used. The unused quantum (or the overdraft caused by an expensive
+ * entry) is carried over to the next round, so no player is starved.
+ *
+ * @author SBPrime
+ */
+public class DeficitRoundRobinScheduler implements IBlockPlacerScheduler {
+
+    /**
+     * Minimum player weight
+     */
+    private final double MIN_WEIGHT = 0.01;
+
+    /**
+     * The player manager (permissions snapshot)
+     */
+    private final PlayerManager m_playerManager;
+
+    /**
+     * Entry costs (by entry type)
+     */
+    private final int[] m_costs;
+
+    /**
+     * Player weights set at runtime
+     */
+    private final ConcurrentHashMap<String, Double> m_weights;
+
+    /**
+     * Player deficits (main thread only)
+     */
+    private final HashMap<String, Double> m_deficits;
+
+    /**
+     * First player served in the next run
+     */
+    private int m_start;
+
+    public DeficitRoundRobinScheduler(PlayerManager playerManager) {
+        m_playerManager = playerManager;
+        BlockPlacerEntryType[] types = BlockPlacerEntryType.values();
+        m_costs = new int[types.length];
+        for (BlockPlacerEntryType type : types) {
+            m_costs[type.ordinal()] = Math.max(1, ConfigProvider.getEntryCost(type));
+        }
+        m_weights = new ConcurrentHashMap<String, Double>();
+        m_deficits = new HashMap<String, Double>();
+        m_start = 0;
+    }
+
+    @Override
+    public int fetch(String[] players, int budget, IBlockPlacerEntrySource source) {
+        if (budget <= 0 || players == null || players.length == 0) {
+            return 0;
+        }
+
+        final int count = players.length;
+        final double[] weights = new double[count];
+        final boolean[] active = new boolean[count];
+        double totalWeight = 0;
+        for (int i = 0; i < count; i++) {
+            weights[i] = getWeight(players[i]);
+            active[i] = true;
+            totalWeight += weights[i];
+        }
+
+        final double quantum = Math.max(1, budget / totalWeight);
+        final int start = m_start % count;
+        int activeCount = count;
+        int used = 0;
+        while (used < budget && activeCount > 0) {
+            for (int n = 0; n < count && used < budget; n++) {
+                final int i = (start + n) % count;
+                if (!active[i]) {
+                    continue;
+                }
+
+                final String player = players[i];
+                final Double oldDeficit = m_deficits.get(player);
+                double deficit = (oldDeficit != null ? oldDeficit : 0) + quantum * weights[i];
+                while (deficit > 0 && used < budget) {
+                    BlockPlacerEntry entry = source.poll(player);
+                    if (entry == null) {
+                        active[i] = false;
+                        activeCount--;
+                        deficit = 0;
+                        break;
+                    }
+
+                    final int cost = m_costs[entry.getType().ordinal()];
+                    deficit -= cost;
+                    used += cost;
+                }
+                m_deficits.put(player, deficit);
+            }
+        }
+
+        m_start = start + 1;
+        m_deficits.keySet().retainAll(Arrays.asList(players));
+        return used;
+    }
+
+    @Override
+    public double getWeight(String player) {
+        Double weight = m_weights.get(player);
+        if (weight == null) {
+            weight = m_playerManager.getQueueWeight(player);
+        }
+
+        return Math.max(MIN_WEIGHT, weight);
+    }
+
+    @Override
+    public void setWeight(String player, double weight) {
+        m_weights.put(player, Math.max(MIN_WEIGHT, weight));
+    }
+
+    @Override
+    public void resetWeight(String player) {
+        m_weights.remove(player);
+    }
+
+    @Override
+    public int getCost(BlockPlacerEntryType type) {
+        return m_costs[type.ordinal()];
+    }
+
+    @Override
+    public void setCost(BlockPlacerEntryType type, int cost) {
+        m_costs[type.ordinal()] = Math.max(1, cost);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.blockPlacer;
+
+/**
+ * Selects the queued entries placed in a block placer run. The budget of the
+ * run is shared between the players according to their weights, each entry
+ * uses the cost of its type.
+ *
+ * @author SBPrime
+ */
+public interface IBlockPlacerScheduler {
+
+    /**
+     * Fetch the entries that are going to be placed in this run
+     *
+     * @param players players with queued entries
+     * @param budget total cost of the entries to fetch
+     * @param source the player queues
+     * @return total cost of the fetched entries
+     */
+    int fetch(String[] players, int budget, IBlockPlacerEntrySource source);
+
+    /**
+     * Get the player weight
+     *
+     * @param player
+     * @return
+     */
+    double getWeight(String player);
+
+    /**
+     * Override the player weight, the weight is no longer taken from the
+     * permissions
+     *
+     * @param player
+     * @param weight
+     */
+    void setWeight(String player, double weight);
+
+    /**
+     * Remove the player weight override
+     *
+     * @param player
+     */
+    void resetWeight(String player);
+
+    /**
+     * Get the entry type cost
+     *
+     * @param type
+     * @return
+     */
+    int getCost(BlockPlacerEntryType type);
+
+    /**
+     * Set the entry type cost
+     *
+     * @param type
+     * @param cost
+     */
+    void setCost(BlockPlacerEntryType type, int cost);
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.blockPlacer;
+
+import org.primesoft.asyncworldedit.utils.LongCounterMap;
+
+/**
+ * Number of queued writes per block (packed position). The counters are
+ * striped, so the producers and the block placer rarely lock the same part of
+ * the map.
+ *
+ * @author SBPrime
+ */
+public class PendingWrites {
+
+    /**
+     * Number of stripes (power of two)
+     */
+    private static final int STRIPES = 32;
+
+    private final LongCounterMap[] m_stripes;
+
+    public PendingWrites() {
+        m_stripes = new LongCounterMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            m_stripes[i] = new LongCounterMap();
+        }
+    }
+
+    /**
+     * Add queued write
+     *
+     * @param position packed position
+     */
+    public void add(long position) {
+        final LongCounterMap stripe = getStripe(position);
+        synchronized (stripe) {
+            stripe.add(position, 1);
+        }
+    }
+
+    /**
+     * Remove queued write
+     *
+     * @param position packed position
+     * @return true if a later write to the same block is queued
+     */
+    public boolean remove(long position) {
+        final LongCounterMap stripe = getStripe(position);
+        synchronized (stripe) {
+            return stripe.add(position, -1) > 0;
+        }
+    }
+
+    private LongCounterMap getStripe(long position) {
+        //Stripe by the chunk, so the writes placed in a row share the stripe
+        final int hash = (int) (position >> 42) * 31 + (int) (position >> 16);
+        return m_stripes[(hash ^ (hash >>> 8)) & (STRIPES - 1)];
+    }
+}
@@ -23,12 +23,15 @@
  */
 package org.primesoft.asyncworldedit.blockPlacer;
 
-import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import org.bukkit.ChatColor;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.primesoft.asyncworldedit.PluginMain;
 
@@ -50,7 +53,19 @@ public class PlayerEntry {
     /**
      * The queue
      */
-    private Queue<BlockPlacerEntry> m_queue;
+    private final BlockQueue m_queue;
+    /**
+     * Number of queued entries
+     */
+    private final AtomicInteger m_queueSize;
+    /**
+     * Number of threads adding entries to the queue
+     */
+    private final AtomicInteger m_producers;
+    /**
+     * The entry was removed from the block placer
+     */
+    private volatile boolean m_isRemoved;
     /**
      * Current block placing speed (blocks per second)
      */
@@ -63,6 +78,26 @@ public class PlayerEntry {
      * List of jobs
      */
     private final HashMap<Integer, BlockPlacerJobEntry> m_jobs;
+    /**
+     * The last job returned by findJob
+     */
+    private volatile BlockPlacerJobEntry m_lastJob;
+    /**
+     * The queued writes coalescing mode
+     */
+    private final CoalesceMode m_coalesceMode;
+    /**
+     * Queued writes (by job ID or world name)
+     */
+    private final ConcurrentHashMap<Object, PendingWrites> m_pendingWrites;
+    /**
+     * Number of writes dropped by the coalescing
+     */
+    private final AtomicLong m_coalesced = new AtomicLong();
+    /**
+     * Queued writes readable by the job async tasks (by job ID)
+     */
+    private final ConcurrentHashMap<Integer, WriteOverlay> m_overlays;
 
     
     /**
@@ -74,7 +109,21 @@ public class PlayerEntry {
      * Create new player entry
      */
     public PlayerEntry() {
-        m_queue = new ArrayDeque();
+        this(CoalesceMode.None);
+    }
+
+    /**
+     * Create new player entry
+     * @param coalesceMode the queued writes coalescing mode
+     */
+    public PlayerEntry(CoalesceMode coalesceMode) {
+        m_coalesceMode = coalesceMode;
+        m_pendingWrites = new ConcurrentHashMap<Object, PendingWrites>();
+        m_overlays = new ConcurrentHashMap<Integer, WriteOverlay>();
+        m_queue = new BlockQueue();
+        m_queueSize = new AtomicInteger();
+        m_producers = new AtomicInteger();
+        m_isRemoved = false;
         m_speed = 0;
         m_jobId = 0;
         m_jobs = new HashMap<Integer, BlockPlacerJobEntry>();
@@ -84,20 +133,215 @@ public class PlayerEntry {
      * Get block entries queue
      * @return
      */
-    public Queue<BlockPlacerEntry> getQueue() {
+    public BlockQueue getQueue() {
         return m_queue;
     }
 
-    
+
+    /**
+     * Start adding entries to the queue
+     * @return false if the entry was removed from the block placer
+     */
+    public boolean enterProducer() {
+        m_producers.incrementAndGet();
+        if (m_isRemoved) {
+            m_producers.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stop adding entries to the queue
+     */
+    public void leaveProducer() {
+        m_producers.decrementAndGet();
+    }
+
     /**
-     * Change current queue to new queue
-     * @param newQueue 
+     * Try to mark the entry as removed, fails if the queue is not empty or
+     * some thread is adding entries to it
+     * @return true if the entry can be removed from the block placer
      */
-    public void updateQueue(Queue<BlockPlacerEntry> newQueue) {
-        m_queue = newQueue;
+    public boolean tryRemove() {
+        m_isRemoved = true;
+        if (m_producers.get() > 0 || m_queueSize.get() > 0) {
+            m_isRemoved = false;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Mark the entry as removed, no new producer can enter
+     */
+    public void markRemoved() {
+        m_isRemoved = true;
+    }
+
+    /**
+     * Mark the entry as removed and wait for all producers to finish. Do not
+     * call it while holding the block placer lock.
+     */
+    public void remove() {
+        final long WAIT_TIME = 1000000;
+        m_isRemoved = true;
+        while (m_producers.get() > 0) {
+            LockSupport.parkNanos(this, WAIT_TIME);
+        }
+    }
+
+    /**
+     * Get the number of queued entries
+     * @return
+     */
+    public int getQueueSize() {
+        return m_queueSize.get();
+    }
+
+    /**
+     * Update the number of queued entries
+     * @param delta
+     * @return new number of queued entries
+     */
+    public int updateQueueSize(int delta) {
+        return m_queueSize.addAndGet(delta);
     }
 
     
+    /**
+     * Register queued write
+     * @param entry 
+     */
+    public void addPendingWrite(BlockPlacerBlockEntry entry) {
+        PendingWrites writes = getPendingWrites(entry, true);
+        if (writes != null) {
+            writes.add(entry.getPackedLocation());
+        }
+    }
+
+    /**
+     * Unregister queued write that is going to be placed or was removed
+     * @param entry
+     * @return true if a later write to the same block is queued, the entry 
+     * does not need to be placed
+     */
+    public boolean removePendingWrite(BlockPlacerBlockEntry entry) {
+        PendingWrites writes = getPendingWrites(entry, false);
+        return writes != null && writes.remove(entry.getPackedLocation());
+    }
+
+    /**
+     * Remove all queued writes
+     */
+    public void clearPendingWrites() {
+        m_pendingWrites.clear();
+    }
+
+    /**
+     * Create the queued writes overlay for the job
+     * @param jobId
+     * @return 
+     */
+    public WriteOverlay createOverlay(int jobId) {
+        WriteOverlay result = new WriteOverlay();
+        WriteOverlay old = m_overlays.putIfAbsent(jobId, result);
+        return old != null ? old : result;
+    }
+
+    /**
+     * Remove the queued writes overlay of the job
+     * @param jobId 
+     */
+    public void removeOverlay(int jobId) {
+        m_overlays.remove(jobId);
+    }
+
+    /**
+     * Add the queued write to the job overlay
+     * @param entry 
+     */
+    public void addOverlayWrite(BlockPlacerBlockEntry entry) {
+        if (m_overlays.isEmpty()) {
+            return;
+        }
+        WriteOverlay overlay = m_overlays.get(entry.getJobId());
+        if (overlay != null) {
+            overlay.add(entry.getPackedLocation(), entry.getNewBlock());
+        }
+    }
+
+    /**
+     * Release the placed (or removed) write from the job overlay
+     * @param entry 
+     */
+    public void removeOverlayWrite(BlockPlacerBlockEntry entry) {
+        if (m_overlays.isEmpty()) {
+            return;
+        }
+        WriteOverlay overlay = m_overlays.get(entry.getJobId());
+        if (overlay != null) {
+            overlay.remove(entry.getPackedLocation());
+        }
+    }
+
+    /**
+     * Remove all queued writes overlays
+     */
+    public void clearOverlays() {
+        m_overlays.clear();
+    }
+
+    /**
+     * Number of writes dropped by the coalescing
+     * @return 
+     */
+    public long getCoalesced() {
+        return m_coalesced.get();
+    }
+
+    /**
+     * Update the number of writes dropped by the coalescing
+     * @param delta 
+     */
+    public void updateCoalesced(int delta) {
+        m_coalesced.addAndGet(delta);
+    }
+
+    /**
+     * Get queued writes for the entry job (or world)
+     * @param entry
+     * @param create
+     * @return 
+     */
+    private PendingWrites getPendingWrites(BlockPlacerBlockEntry entry, boolean create) {
+        final Object key;
+        switch (m_coalesceMode) {
+            case Job:
+                key = entry.getJobId();
+                break;
+            case Player:
+                World world = entry.getEditSession().getCBWorld();
+                key = world != null ? world.getName() : null;
+                break;
+            default:
+                key = null;
+        }
+        if (key == null) {
+            return null;
+        }
+
+        PendingWrites result = m_pendingWrites.get(key);
+        if (result == null && create) {
+            result = new PendingWrites();
+            PendingWrites old = m_pendingWrites.putIfAbsent(key, result);
+            if (old != null) {
+                result = old;
+            }
+        }
+        return result;
+    }
+
     /**
      * Get block placing speed (blocks per second)
      * @return 
@@ -150,14 +394,7 @@ public class PlayerEntry {
      * @param job 
      */
     public void removeJob(BlockPlacerJobEntry job) {
-        synchronized (m_jobs) {
-            int id = job.getJobId();
-            if (!m_jobs.containsKey(id)) {
-                return;
-            }
-            m_jobs.get(id).cancel();
-            m_jobs.remove(id);
-        }
+        removeJob(job.getJobId());
     }
 
     
@@ -167,11 +404,19 @@ public class PlayerEntry {
      */
     public void removeJob(int jobId) {
         synchronized (m_jobs) {
-            if (!m_jobs.containsKey(jobId)) {
+            BlockPlacerJobEntry job = m_jobs.remove(jobId);
+            if (job == null) {
                 return;
             }
-            m_jobs.get(jobId).cancel();
-            m_jobs.remove(jobId);
+            //findJob caches the jobs under the same lock
+            if (m_lastJob == job) {
+                m_lastJob = null;
+            }
+            job.cancel();
+        }
+        m_overlays.remove(jobId);
+        if (m_coalesceMode == CoalesceMode.Job) {
+            m_pendingWrites.remove(jobId);
         }
     }
 
@@ -199,7 +444,7 @@ public class PlayerEntry {
             lines.add(ChatColor.YELLOW + "Jobs: ");
             for (BlockPlacerJobEntry job : m_jobs.values()) {
                 lines.add(ChatColor.YELLOW + " * " + job.toString()
-                        + ChatColor.YELLOW + " - " + job.getStatusString());
+                        + ChatColor.YELLOW + " - " + job.getStatusString() + job.getStatsString());
             }
         }
     }
@@ -226,6 +471,29 @@ public class PlayerEntry {
             return m_jobs.get(jobId);
         }
     }
+
+
+    /**
+     * Get job, the last found job is cached so the block entries of a single
+     * job do not lock the jobs list. The job is cached under the jobs lock, so
+     * a removed job is never cached again.
+     * @param jobId job ID
+     * @return 
+     */
+    public BlockPlacerJobEntry findJob(int jobId) {
+        BlockPlacerJobEntry job = m_lastJob;
+        if (job != null && job.getJobId() == jobId) {
+            return job;
+        }
+
+        synchronized (m_jobs) {
+            job = m_jobs.get(jobId);
+            if (job != null) {
+                m_lastJob = job;
+            }
+        }
+        return job;
+    }
        
     
     /**
@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.blockPlacer;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import org.primesoft.asyncworldedit.utils.LongBlockMap;
+import org.primesoft.asyncworldedit.utils.LongCounterMap;
+import org.primesoft.asyncworldedit.utils.PositionPacker;
+
+/**
+ * Queued but not yet placed writes of a single job, used by the job async
+ * task to read its own writes. The writes are released when they are placed
+ * (or dropped). The chunks captured as snapshots for the job are tracked, a
+ * chunk that receives a write after it was captured is marked as stale.
+ *
+ * @author SBPrime
+ */
+public class WriteOverlay {
+
+    /**
+     * Number of stripes (power of two)
+     */
+    private static final int STRIPES = 32;
+
+    private final LongBlockMap[] m_stripes;
+
+    /**
+     * Chunks captured for the job (main thread only)
+     */
+    private final LongCounterMap m_captured;
+
+    /**
+     * Captured chunks changed after the capture
+     */
+    private final LongCounterMap m_stale;
+
+    /**
+     * Stale chunks version, changed when a chunk is marked as stale
+     */
+    private volatile int m_staleVersion;
+
+    public WriteOverlay() {
+        m_stripes = new LongBlockMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            m_stripes[i] = new LongBlockMap();
+        }
+        m_captured = new LongCounterMap();
+        m_stale = new LongCounterMap();
+        m_staleVersion = 0;
+    }
+
+    /**
+     * Add queued write
+     *
+     * @param position packed position
+     * @param block
+     */
+    public void add(long position, BaseBlock block) {
+        final LongBlockMap stripe = getStripe(position);
+        synchronized (stripe) {
+            stripe.put(position, block);
+        }
+    }
+
+    /**
+     * Get the last queued write
+     *
+     * @param position packed position
+     * @return null if there is no queued write
+     */
+    public BaseBlock get(long position) {
+        final LongBlockMap stripe = getStripe(position);
+        synchronized (stripe) {
+            return stripe.get(position);
+        }
+    }
+
+    /**
+     * Release the placed (or dropped) write, called from the main thread
+     *
+     * @param position packed position
+     */
+    public void remove(long position) {
+        final long chunk = chunkKey(PositionPacker.getX(position) >> 4,
+                PositionPacker.getZ(position) >> 4);
+        if (m_captured.get(chunk) > 0) {
+            //The snapshot does not contain the write
+            m_captured.add(chunk, -1);
+            synchronized (m_stale) {
+                m_stale.add(chunk, 1);
+            }
+            m_staleVersion++;
+        }
+
+        final LongBlockMap stripe = getStripe(position);
+        synchronized (stripe) {
+            stripe.release(position);
+        }
+    }
+
+    /**
+     * Register captured chunk snapshot, called from the main thread
+     *
+     * @param cx
+     * @param cz
+     */
+    public void captured(int cx, int cz) {
+        final long chunk = chunkKey(cx, cz);
+        if (m_captured.get(chunk) == 0) {
+            m_captured.add(chunk, 1);
+        }
+    }
+
+    /**
+     * Stale chunks version
+     *
+     * @return
+     */
+    public int getStaleVersion() {
+        return m_staleVersion;
+    }
+
+    /**
+     * Get and clear the stale chunks
+     *
+     * @return packed chunk coordinates
+     */
+    public long[] takeStale() {
+        synchronized (m_stale) {
+            final long[] result = m_stale.keys();
+            m_stale.clear();
+            return result;
+        }
+    }
+
+    /**
+     * Pack the chunk coordinates
+     *
+     * @param cx
+     * @param cz
+     * @return
+     */
+    public static long chunkKey(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xffffffffL);
+    }
+
+    private LongBlockMap getStripe(long position) {
+        //Stripe by the chunk, so the writes placed in a row share the stripe
+        final int hash = (int) (position >> 42) * 31 + (int) (position >> 16);
+        return m_stripes[(hash ^ (hash >>> 8)) & (STRIPES - 1)];
+    }
+}
@@ -35,4 +35,6 @@ public final class Commands {
     public final static String COMMAND_JOBS = "Jobs";
     public final static String COMMAND_CANCEL = "Cancel";
     public final static String COMMAND_TOGGLE = "Toggle";
+    public final static String COMMAND_WEIGHT = "Weight";
+    public final static String COMMAND_COST = "Cost";
 }
\ No newline at end of file
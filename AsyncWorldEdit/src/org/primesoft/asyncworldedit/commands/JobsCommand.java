@@ -30,6 +30,7 @@ import org.bukkit.entity.Player;
 import org.primesoft.asyncworldedit.blockPlacer.BlockPlacer;
 import org.primesoft.asyncworldedit.Help;
 import org.primesoft.asyncworldedit.PermissionManager;
+import org.primesoft.asyncworldedit.PhysicsWatch;
 import org.primesoft.asyncworldedit.PluginMain;
 import org.primesoft.asyncworldedit.blockPlacer.PlayerEntry;
 
@@ -151,7 +152,7 @@ public class JobsCommand {
             } else {
                 for (String user : users) {
                     PlayerEntry entry = bPlacer.getPlayerEvents(user);
-                    int cnt = entry != null ? entry.getQueue().size() : 0;
+                    int cnt = entry != null ? entry.getQueueSize() : 0;
                     lines.add(ChatColor.YELLOW + "Player " + ChatColor.WHITE
                             + user + ChatColor.YELLOW + " has " + ChatColor.WHITE + cnt
                             + ChatColor.YELLOW + " block operations queued.");
@@ -160,6 +161,18 @@ public class JobsCommand {
                     }
                 }
             }
+            lines.add(ChatColor.YELLOW + "Total queued: " + ChatColor.WHITE + bPlacer.getQueueSize()
+                    + ChatColor.YELLOW + " block operations.");
+            lines.add(ChatColor.YELLOW + "Chunks touched per 1000 blocks: " + ChatColor.WHITE
+                    + String.format("%.2f", bPlacer.getChunksPerThousandBlocks()));
+            lines.add(ChatColor.YELLOW + "Blocks per run: " + ChatColor.WHITE + bPlacer.getBlocksPerRun()
+                    + ChatColor.YELLOW + ", TPS: " + ChatColor.WHITE + String.format("%.2f", bPlacer.getTps()));
+            lines.add(ChatColor.YELLOW + "Coalesced writes: " + ChatColor.WHITE + bPlacer.getCoalescedBlocks()
+                    + ChatColor.YELLOW + ", unchanged blocks skipped: " + ChatColor.WHITE + bPlacer.getUnchangedBlocks());
+            PhysicsWatch physics = sender.getPhysicsWatcher();
+            lines.add(ChatColor.YELLOW + "Physics events checked: " + ChatColor.WHITE + physics.getCheckedEvents()
+                    + ChatColor.YELLOW + ", avg check time: " + ChatColor.WHITE
+                    + String.format("%.2f", physics.getAverageCheckTime()) + ChatColor.YELLOW + "us");
         }
 
         String[] l = lines.toArray(new String[0]);
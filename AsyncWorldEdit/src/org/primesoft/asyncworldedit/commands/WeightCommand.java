@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.commands;
+
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+import org.primesoft.asyncworldedit.Help;
+import org.primesoft.asyncworldedit.PermissionManager;
+import org.primesoft.asyncworldedit.PluginMain;
+import org.primesoft.asyncworldedit.blockPlacer.IBlockPlacerScheduler;
+
+/**
+ *
+ * @author SBPrime
+ */
+public class WeightCommand {
+
+    public static void Execte(PluginMain sender, Player player, String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            Help.ShowHelp(player, Commands.COMMAND_WEIGHT);
+            return;
+        }
+
+        String arg = args[1];
+        if (!arg.startsWith("u:")) {
+            Help.ShowHelp(player, Commands.COMMAND_WEIGHT);
+            return;
+        }
+        if (!PermissionManager.isAllowed(player, PermissionManager.Perms.Scheduler)) {
+            PluginMain.say(player, ChatColor.RED + "You have no permissions to do that.");
+            return;
+        }
+
+        String name = arg.substring(2);
+        IBlockPlacerScheduler scheduler = sender.getBlockPlacer().getScheduler();
+        if (args.length == 3) {
+            if (args[2].equalsIgnoreCase("reset")) {
+                scheduler.resetWeight(name);
+            } else {
+                try {
+                    scheduler.setWeight(name, Double.parseDouble(args[2]));
+                } catch (NumberFormatException ex) {
+                    PluginMain.say(player, ChatColor.RED + "Number expected.");
+                    return;
+                }
+            }
+        }
+
+        PluginMain.say(player, ChatColor.YELLOW + "Player " + ChatColor.WHITE + name
+                + ChatColor.YELLOW + " weight: " + ChatColor.WHITE + scheduler.getWeight(name));
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.utils;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map of long keys to blocks. Each key keeps the last
+ * stored block and the number of stores, the key is removed when all the
+ * stores are released. Plain blocks are stored as packed ids. The map is not
+ * thread safe.
+ *
+ * @author SBPrime
+ */
+public class LongBlockMap {
+
+    /**
+     * Minimum table size
+     */
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Packed id of a block with extra data
+     */
+    private static final int COMPLEX_BLOCK = -1;
+
+    /**
+     * The keys
+     */
+    private long[] m_keys;
+
+    /**
+     * Number of stores, 0 marks an empty slot
+     */
+    private int[] m_counts;
+
+    /**
+     * Packed block ids
+     */
+    private int[] m_blocks;
+
+    /**
+     * Blocks with extra data (created on demand)
+     */
+    private BaseBlock[] m_complex;
+
+    /**
+     * Number of stored keys
+     */
+    private int m_size;
+
+    public LongBlockMap() {
+        m_keys = new long[MIN_CAPACITY];
+        m_counts = new int[MIN_CAPACITY];
+        m_blocks = new int[MIN_CAPACITY];
+        m_complex = null;
+        m_size = 0;
+    }
+
+    /**
+     * Get the last stored block
+     *
+     * @param key
+     * @return null if the key is not stored
+     */
+    public BaseBlock get(long key) {
+        final int mask = m_keys.length - 1;
+        for (int i = hash(key) & mask; m_counts[i] != 0; i = (i + 1) & mask) {
+            if (m_keys[i] == key) {
+                final int id = m_blocks[i];
+                if (id == COMPLEX_BLOCK) {
+                    return m_complex[i];
+                }
+                return new BaseBlock(id >> 4, id & 0xf);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Store the block
+     *
+     * @param key
+     * @param block
+     */
+    public void put(long key, BaseBlock block) {
+        final int mask = m_keys.length - 1;
+        int i = hash(key) & mask;
+        for (; m_counts[i] != 0; i = (i + 1) & mask) {
+            if (m_keys[i] == key) {
+                m_counts[i]++;
+                setBlock(i, block);
+                return;
+            }
+        }
+
+        m_keys[i] = key;
+        m_counts[i] = 1;
+        setBlock(i, block);
+        m_size++;
+        if (m_size * 2 > m_keys.length) {
+            resize(m_keys.length * 2);
+        }
+    }
+
+    /**
+     * Release one store of the key, the key is removed when all the stores
+     * are released
+     *
+     * @param key
+     * @return number of the remaining stores
+     */
+    public int release(long key) {
+        final int mask = m_keys.length - 1;
+        for (int i = hash(key) & mask; m_counts[i] != 0; i = (i + 1) & mask) {
+            if (m_keys[i] == key) {
+                final int result = m_counts[i] - 1;
+                if (result > 0) {
+                    m_counts[i] = result;
+                } else {
+                    removeAt(i);
+                }
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Number of stored keys
+     *
+     * @return
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Remove all keys
+     */
+    public void clear() {
+        m_keys = new long[MIN_CAPACITY];
+        m_counts = new int[MIN_CAPACITY];
+        m_blocks = new int[MIN_CAPACITY];
+        m_complex = null;
+        m_size = 0;
+    }
+
+    private void setBlock(int slot, BaseBlock block) {
+        if (block.getClass() == BaseBlock.class) {
+            m_blocks[slot] = (block.getType() << 4) | (block.getData() & 0xf);
+            if (m_complex != null) {
+                m_complex[slot] = null;
+            }
+        } else {
+            if (m_complex == null) {
+                m_complex = new BaseBlock[m_keys.length];
+            }
+            m_blocks[slot] = COMPLEX_BLOCK;
+            m_complex[slot] = block;
+        }
+    }
+
+    /**
+     * Remove the slot and shift back the following keys of the probe chain
+     *
+     * @param slot
+     */
+    private void removeAt(int slot) {
+        final int mask = m_keys.length - 1;
+        int free = slot;
+        int i = (free + 1) & mask;
+        while (m_counts[i] != 0) {
+            final int home = hash(m_keys[i]) & mask;
+            //Move the key if its home slot is not between the free slot and i
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                m_keys[free] = m_keys[i];
+                m_counts[free] = m_counts[i];
+                m_blocks[free] = m_blocks[i];
+                if (m_complex != null) {
+                    m_complex[free] = m_complex[i];
+                }
+                free = i;
+            }
+            i = (i + 1) & mask;
+        }
+        m_counts[free] = 0;
+        if (m_complex != null) {
+            m_complex[free] = null;
+        }
+        m_size--;
+    }
+
+    private void resize(int capacity) {
+        final long[] keys = m_keys;
+        final int[] counts = m_counts;
+        final int[] blocks = m_blocks;
+        final BaseBlock[] complex = m_complex;
+        m_keys = new long[capacity];
+        m_counts = new int[capacity];
+        m_blocks = new int[capacity];
+        m_complex = complex != null ? new BaseBlock[capacity] : null;
+
+        final int mask = capacity - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (counts[j] == 0) {
+                continue;
+            }
+            int i = hash(keys[j]) & mask;
+            while (m_counts[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            m_keys[i] = keys[j];
+            m_counts[i] = counts[j];
+            m_blocks[i] = blocks[j];
+            if (complex != null) {
+                m_complex[i] = complex[j];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map of long keys to positive int counters. Counters
+ * that drop to zero are removed. The map is not thread safe.
+ *
+ * @author SBPrime
+ */
+public class LongCounterMap {
+
+    /**
+     * Minimum table size
+     */
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * The keys
+     */
+    private long[] m_keys;
+
+    /**
+     * The counters, 0 marks an empty slot
+     */
+    private int[] m_values;
+
+    /**
+     * Number of stored keys
+     */
+    private int m_size;
+
+    public LongCounterMap() {
+        m_keys = new long[MIN_CAPACITY];
+        m_values = new int[MIN_CAPACITY];
+        m_size = 0;
+    }
+
+    /**
+     * Get the counter value
+     *
+     * @param key
+     * @return 0 if the key is not stored
+     */
+    public int get(long key) {
+        final int mask = m_keys.length - 1;
+        for (int i = hash(key) & mask; m_values[i] != 0; i = (i + 1) & mask) {
+            if (m_keys[i] == key) {
+                return m_values[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Update the counter, the key is removed when the counter drops to zero
+     *
+     * @param key
+     * @param delta
+     * @return new counter value
+     */
+    public int add(long key, int delta) {
+        final int mask = m_keys.length - 1;
+        int i = hash(key) & mask;
+        for (; m_values[i] != 0; i = (i + 1) & mask) {
+            if (m_keys[i] == key) {
+                final int result = m_values[i] + delta;
+                if (result > 0) {
+                    m_values[i] = result;
+                } else {
+                    removeAt(i);
+                }
+                return Math.max(0, result);
+            }
+        }
+
+        if (delta <= 0) {
+            return 0;
+        }
+
+        m_keys[i] = key;
+        m_values[i] = delta;
+        m_size++;
+        if (m_size * 2 > m_keys.length) {
+            resize(m_keys.length * 2);
+        }
+        return delta;
+    }
+
+    /**
+     * Number of stored keys
+     *
+     * @return
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Get the stored keys
+     *
+     * @return
+     */
+    public long[] keys() {
+        final long[] result = new long[m_size];
+        int pos = 0;
+        for (int i = 0; i < m_keys.length; i++) {
+            if (m_values[i] != 0) {
+                result[pos++] = m_keys[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove all keys
+     */
+    public void clear() {
+        if (m_keys.length > MIN_CAPACITY) {
+            m_keys = new long[MIN_CAPACITY];
+            m_values = new int[MIN_CAPACITY];
+        } else {
+            Arrays.fill(m_values, 0);
+        }
+        m_size = 0;
+    }
+
+    /**
+     * Remove the slot and shift back the following keys of the probe chain
+     *
+     * @param slot
+     */
+    private void removeAt(int slot) {
+        final int mask = m_keys.length - 1;
+        int free = slot;
+        int i = (free + 1) & mask;
+        while (m_values[i] != 0) {
+            final int home = hash(m_keys[i]) & mask;
+            //Move the key if its home slot is not between the free slot and i
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                m_keys[free] = m_keys[i];
+                m_values[free] = m_values[i];
+                free = i;
+            }
+            i = (i + 1) & mask;
+        }
+        m_values[free] = 0;
+        m_size--;
+    }
+
+    private void resize(int capacity) {
+        final long[] keys = m_keys;
+        final int[] values = m_values;
+        m_keys = new long[capacity];
+        m_values = new int[capacity];
+
+        final int mask = capacity - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (values[j] == 0) {
+                continue;
+            }
+            int i = hash(keys[j]) & mask;
+            while (m_values[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            m_keys[i] = keys[j];
+            m_values[i] = values[j];
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
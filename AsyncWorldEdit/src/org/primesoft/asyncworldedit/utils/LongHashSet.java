@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash set of long values. The set is not thread safe.
+ *
+ * @author SBPrime
+ */
+public class LongHashSet {
+
+    /**
+     * Minimum table size
+     */
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Value used to mark empty slots
+     */
+    private static final long EMPTY = 0;
+
+    /**
+     * The stored values
+     */
+    private long[] m_values;
+
+    /**
+     * Is the EMPTY value stored
+     */
+    private boolean m_hasEmpty;
+
+    /**
+     * Number of stored values
+     */
+    private int m_size;
+
+    public LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Create a set able to store the number of values without resizing
+     *
+     * @param expectedSize
+     */
+    public LongHashSet(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2 && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        m_values = new long[capacity];
+        m_hasEmpty = false;
+        m_size = 0;
+    }
+
+    /**
+     * Check if the value is stored
+     *
+     * @param value
+     * @return
+     */
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return m_hasEmpty;
+        }
+
+        final int mask = m_values.length - 1;
+        for (int i = hash(value) & mask; m_values[i] != EMPTY; i = (i + 1) & mask) {
+            if (m_values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add the value to the set
+     *
+     * @param value
+     * @return true if the value was not stored
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (m_hasEmpty) {
+                return false;
+            }
+            m_hasEmpty = true;
+            m_size++;
+            return true;
+        }
+
+        final int mask = m_values.length - 1;
+        int i = hash(value) & mask;
+        for (; m_values[i] != EMPTY; i = (i + 1) & mask) {
+            if (m_values[i] == value) {
+                return false;
+            }
+        }
+
+        m_values[i] = value;
+        m_size++;
+        if (m_size * 2 > m_values.length) {
+            resize(m_values.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Number of stored values
+     *
+     * @return
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Remove all values
+     */
+    public void clear() {
+        if (m_values.length > MIN_CAPACITY) {
+            m_values = new long[MIN_CAPACITY];
+        } else {
+            Arrays.fill(m_values, EMPTY);
+        }
+        m_hasEmpty = false;
+        m_size = 0;
+    }
+
+    private void resize(int capacity) {
+        final long[] values = m_values;
+        m_values = new long[capacity];
+
+        final int mask = capacity - 1;
+        for (long value : values) {
+            if (value == EMPTY) {
+                continue;
+            }
+            int i = hash(value) & mask;
+            while (m_values[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            m_values[i] = value;
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
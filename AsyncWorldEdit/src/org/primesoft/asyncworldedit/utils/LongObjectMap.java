@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map of long keys to objects. Null values are not
+ * allowed, a null value marks an empty slot. The map is not thread safe, a
+ * map that is no longer modified can be read by many threads once it is
+ * safely published.
+ *
+ * @author SBPrime
+ * @param <T> the value type
+ */
+public class LongObjectMap<T> {
+
+    /**
+     * Minimum table size
+     */
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * The keys
+     */
+    private long[] m_keys;
+
+    /**
+     * The values, null marks an empty slot
+     */
+    private Object[] m_values;
+
+    /**
+     * Number of stored keys
+     */
+    private int m_size;
+
+    public LongObjectMap() {
+        m_keys = new long[MIN_CAPACITY];
+        m_values = new Object[MIN_CAPACITY];
+        m_size = 0;
+    }
+
+    /**
+     * Create a copy of the map
+     *
+     * @param other
+     */
+    public LongObjectMap(LongObjectMap<T> other) {
+        m_keys = other.m_keys.clone();
+        m_values = other.m_values.clone();
+        m_size = other.m_size;
+    }
+
+    /**
+     * Get the value
+     *
+     * @param key
+     * @return null if the key is not stored
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long key) {
+        final long[] keys = m_keys;
+        final Object[] values = m_values;
+        final int mask = keys.length - 1;
+        for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (T) values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Store the value
+     *
+     * @param key
+     * @param value
+     * @return the previous value
+     */
+    @SuppressWarnings("unchecked")
+    public T put(long key, T value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not allowed");
+        }
+
+        final int mask = m_keys.length - 1;
+        int i = hash(key) & mask;
+        for (; m_values[i] != null; i = (i + 1) & mask) {
+            if (m_keys[i] == key) {
+                final T result = (T) m_values[i];
+                m_values[i] = value;
+                return result;
+            }
+        }
+
+        m_keys[i] = key;
+        m_values[i] = value;
+        m_size++;
+        if (m_size * 2 > m_keys.length) {
+            resize(m_keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Remove the key
+     *
+     * @param key
+     * @return the removed value
+     */
+    @SuppressWarnings("unchecked")
+    public T remove(long key) {
+        final int mask = m_keys.length - 1;
+        for (int i = hash(key) & mask; m_values[i] != null; i = (i + 1) & mask) {
+            if (m_keys[i] == key) {
+                final T result = (T) m_values[i];
+                removeAt(i);
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Number of stored keys
+     *
+     * @return
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Get the stored keys
+     *
+     * @return
+     */
+    public long[] keys() {
+        final long[] result = new long[m_size];
+        int pos = 0;
+        for (int i = 0; i < m_keys.length; i++) {
+            if (m_values[i] != null) {
+                result[pos++] = m_keys[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove all keys
+     */
+    public void clear() {
+        if (m_keys.length > MIN_CAPACITY) {
+            m_keys = new long[MIN_CAPACITY];
+            m_values = new Object[MIN_CAPACITY];
+        } else {
+            Arrays.fill(m_values, null);
+        }
+        m_size = 0;
+    }
+
+    /**
+     * Remove the slot and shift back the following keys of the probe chain
+     *
+     * @param slot
+     */
+    private void removeAt(int slot) {
+        final int mask = m_keys.length - 1;
+        int free = slot;
+        int i = (free + 1) & mask;
+        while (m_values[i] != null) {
+            final int home = hash(m_keys[i]) & mask;
+            //Move the key if its home slot is not between the free slot and i
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                m_keys[free] = m_keys[i];
+                m_values[free] = m_values[i];
+                free = i;
+            }
+            i = (i + 1) & mask;
+        }
+        m_values[free] = null;
+        m_size--;
+    }
+
+    private void resize(int capacity) {
+        final long[] keys = m_keys;
+        final Object[] values = m_values;
+        m_keys = new long[capacity];
+        m_values = new Object[capacity];
+
+        final int mask = capacity - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (values[j] == null) {
+                continue;
+            }
+            int i = hash(keys[j]) & mask;
+            while (m_values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            m_keys[i] = keys[j];
+            m_values[i] = values[j];
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
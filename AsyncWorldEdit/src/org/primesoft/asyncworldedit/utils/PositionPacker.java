@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.utils;
+
+import com.sk89q.worldedit.Vector;
+
+/**
+ * Packs block coordinates into a single long value. X and Z use 26 bits each,
+ * Y uses the remaining 12 bits (all signed). Coordinates outside of that range
+ * wrap, so they need to be checked with isPackable before they are packed.
+ *
+ * @author SBPrime
+ */
+public class PositionPacker {
+
+    private static final long MASK_XZ = (1L << 26) - 1;
+    private static final long MASK_Y = (1L << 12) - 1;
+
+    /**
+     * Minimum x and z coordinate that can be packed
+     */
+    public static final int MIN_XZ = -(1 << 25);
+
+    /**
+     * Maximum x and z coordinate that can be packed
+     */
+    public static final int MAX_XZ = (1 << 25) - 1;
+
+    /**
+     * Minimum y coordinate that can be packed
+     */
+    public static final int MIN_Y = -(1 << 11);
+
+    /**
+     * Maximum y coordinate that can be packed
+     */
+    public static final int MAX_Y = (1 << 11) - 1;
+
+    /**
+     * Check if the block coordinates can be packed without wrapping
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public static boolean isPackable(int x, int y, int z) {
+        return x >= MIN_XZ && x <= MAX_XZ
+                && z >= MIN_XZ && z <= MAX_XZ
+                && y >= MIN_Y && y <= MAX_Y;
+    }
+
+    /**
+     * Check if the block coordinates can be packed without wrapping
+     *
+     * @param location
+     * @return
+     */
+    public static boolean isPackable(Vector location) {
+        return isPackable(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    /**
+     * Pack the block coordinates
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public static long pack(int x, int y, int z) {
+        return ((x & MASK_XZ) << 38) | ((z & MASK_XZ) << 12) | (y & MASK_Y);
+    }
+
+    /**
+     * Pack the block coordinates
+     *
+     * @param location
+     * @return
+     */
+    public static long pack(Vector location) {
+        return pack(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    public static int getX(long packed) {
+        return (int) (packed >> 38);
+    }
+
+    public static int getY(long packed) {
+        return (int) (packed << 52 >> 52);
+    }
+
+    public static int getZ(long packed) {
+        return (int) (packed << 26 >> 38);
+    }
+
+    /**
+     * Unpack the coordinates to a WorldEdit vector
+     *
+     * @param packed
+     * @return
+     */
+    public static Vector toVector(long packed) {
+        return new Vector(getX(packed), getY(packed), getZ(packed));
+    }
+}
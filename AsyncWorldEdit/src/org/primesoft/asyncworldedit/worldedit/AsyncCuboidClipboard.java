@@ -24,7 +24,7 @@
 package org.primesoft.asyncworldedit.worldedit;
 
 import com.sk89q.worldedit.*;
-import org.bukkit.scheduler.BukkitScheduler;
+import com.sk89q.worldedit.regions.CuboidRegion;
 import org.primesoft.asyncworldedit.ConfigProvider;
 import org.primesoft.asyncworldedit.PlayerWrapper;
 import org.primesoft.asyncworldedit.PluginMain;
@@ -59,9 +59,9 @@ public class AsyncCuboidClipboard extends ProxyCuboidClipboard {
     private final CuboidClipboard m_clipboard;
 
     /**
-     * Bukkit schedule
+     * The async task executor
      */
-    private final BukkitScheduler m_schedule;
+    private final AsyncTaskExecutor m_executor;
 
     /**
      * The plugin
@@ -72,7 +72,7 @@ public class AsyncCuboidClipboard extends ProxyCuboidClipboard {
         super(new CuboidClipboardWrapper(player, parrent));
 
         m_plugin = PluginMain.getInstance();
-        m_schedule = m_plugin.getServer().getScheduler();
+        m_executor = m_plugin.getTaskExecutor();
         m_clipboard = parrent;
         m_blockPlacer = m_plugin.getBlockPlacer();
         m_player = player;
@@ -92,7 +92,7 @@ public class AsyncCuboidClipboard extends ProxyCuboidClipboard {
         m_blockPlacer.addJob(m_player, job);
 
 
-        m_schedule.runTaskAsynchronously(m_plugin, new ClipboardAsyncTask(cc, null, m_player, "pasteEntities",
+        m_executor.execute(m_player, new ClipboardAsyncTask(cc, null, m_player, "pasteEntities",
                 m_blockPlacer, job) {
             @Override
             public void task(CuboidClipboard cc)
@@ -131,8 +131,8 @@ public class AsyncCuboidClipboard extends ProxyCuboidClipboard {
         m_blockPlacer.addJob(m_player, job);
 
 
-        m_schedule.runTaskAsynchronously(m_plugin, new ClipboardAsyncTask(cc, editSession, m_player, "place",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new ClipboardAsyncTask(cc, editSession, m_player, "place",
+                m_blockPlacer, job, getRegion(pos)) {
             @Override
             public void task(CuboidClipboard cc)
                     throws MaxChangedBlocksException {
@@ -166,8 +166,8 @@ public class AsyncCuboidClipboard extends ProxyCuboidClipboard {
         }
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new ClipboardAsyncTask(cc, editSession, m_player, "paste",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new ClipboardAsyncTask(cc, editSession, m_player, "paste",
+                m_blockPlacer, job, getRegion(newOrigin.add(getOffset()))) {
             @Override
             public void task(CuboidClipboard cc)
                     throws MaxChangedBlocksException {
@@ -203,8 +203,8 @@ public class AsyncCuboidClipboard extends ProxyCuboidClipboard {
         m_blockPlacer.addJob(m_player, job);
 
 
-        m_schedule.runTaskAsynchronously(m_plugin, new ClipboardAsyncTask(cc, editSession, m_player, "paste",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new ClipboardAsyncTask(cc, editSession, m_player, "paste",
+                m_blockPlacer, job, getRegion(newOrigin.add(getOffset()))) {
             @Override
             public void task(CuboidClipboard cc)
                     throws MaxChangedBlocksException {
@@ -230,4 +230,14 @@ public class AsyncCuboidClipboard extends ProxyCuboidClipboard {
     private int getJobId() {
         return m_blockPlacer.getJobId(m_player);
     }
+
+    /**
+     * Get the region covered by the clipboard placed at the origin
+     *
+     * @param origin
+     * @return
+     */
+    private CuboidRegion getRegion(Vector origin) {
+        return new CuboidRegion(origin, origin.add(getSize()).subtract(1, 1, 1));
+    }
 }
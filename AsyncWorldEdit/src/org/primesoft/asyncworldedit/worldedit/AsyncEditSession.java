@@ -24,6 +24,8 @@
 package org.primesoft.asyncworldedit.worldedit;
 
 import com.sk89q.worldedit.BiomeType;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Countable;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.LocalWorld;
 import com.sk89q.worldedit.MaxChangedBlocksException;
@@ -33,21 +35,26 @@ import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.expression.ExpressionException;
 import com.sk89q.worldedit.masks.Mask;
 import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.regions.RegionOperationException;
 import com.sk89q.worldedit.util.TreeGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.bukkit.World;
-import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.block.Block;
 import org.primesoft.asyncworldedit.BlocksHubIntegration;
 import org.primesoft.asyncworldedit.ConfigProvider;
 import org.primesoft.asyncworldedit.PlayerWrapper;
 import org.primesoft.asyncworldedit.PluginMain;
 import org.primesoft.asyncworldedit.blockPlacer.*;
+import org.primesoft.asyncworldedit.utils.PositionPacker;
 
 /**
  *
@@ -107,9 +114,14 @@ public class AsyncEditSession extends EditSession {
     private final PluginMain m_plugin;
 
     /**
-     * Bukkit schedule
+     * The async task executor
      */
-    private final BukkitScheduler m_schedule;
+    private final AsyncTaskExecutor m_executor;
+
+    /**
+     * Read context of the async task running on the current thread
+     */
+    private final ThreadLocal<TaskReadContext> m_readContext = new ThreadLocal<TaskReadContext>();
 
     /**
      * Number of async tasks
@@ -146,7 +158,7 @@ public class AsyncEditSession extends EditSession {
         m_factory = factory;
         m_player = player;
         m_blockPlacer = plugin.getBlockPlacer();
-        m_schedule = plugin.getServer().getScheduler();
+        m_executor = plugin.getTaskExecutor();
         if (world != null) {
             m_world = plugin.getServer().getWorld(world.getName());
         } else {
@@ -168,7 +180,7 @@ public class AsyncEditSession extends EditSession {
         m_factory = factory;
         m_player = player;
         m_blockPlacer = plugin.getBlockPlacer();
-        m_schedule = plugin.getServer().getScheduler();
+        m_executor = plugin.getTaskExecutor();
         if (world != null) {
             m_world = plugin.getServer().getWorld(world.getName());
         } else {
@@ -184,66 +196,457 @@ public class AsyncEditSession extends EditSession {
         return this.rawSetBlock(pt, m_jobId, block);
     }
 
+    /*
+     * The reads are routed by the calling thread: the async tasks read from
+     * their read context, the main thread reads the world directly and the
+     * other threads queue the read on the main thread.
+     */
     @Override
     public int getBlockType(Vector pt) {
-        try {
-            return super.getBlockType(pt);
-        } catch (Exception ex) {
-            /*
-             * Exception here indicates that async block get is not
-             * available. Therefore use the queue fallback.
-             */
+        final TaskReadContext context = m_readContext.get();
+        if (context != null) {
+            final BaseBlock queued = context.getQueuedBlock(pt);
+            if (queued != null) {
+                return queued.getType();
+            }
+
+            final ChunkSnapshotCache snapshots = context.getSnapshots();
+            if (snapshots != null) {
+                return snapshots.getBlockType(pt);
+            }
         }
 
+        if (m_blockPlacer.isMainTask()) {
+            return super.getBlockType(pt);
+        }
         return queueBlockGet(pt).getType();
     }
 
     @Override
     public BaseBlock getBlock(Vector pt) {
-        try {
-            return super.getBlock(pt);
-        } catch (Exception ex) {
-            /*
-             * Exception here indicates that async block get is not
-             * available. Therefore use the queue fallback.
-             */
+        final TaskReadContext context = m_readContext.get();
+        if (context != null) {
+            final BaseBlock result = getContextBlock(context, pt);
+            if (result != null) {
+                return result;
+            }
         }
 
+        if (m_blockPlacer.isMainTask()) {
+            return super.getBlock(pt);
+        }
         return queueBlockGet(pt);
     }
 
     @Override
     public int getBlockData(Vector pt) {
-        try {
-            return super.getBlockData(pt);
-        } catch (Exception ex) {
-            /*
-             * Exception here indicates that async block get is not
-             * available. Therefore use the queue fallback.
-             */
+        final TaskReadContext context = m_readContext.get();
+        if (context != null) {
+            final BaseBlock queued = context.getQueuedBlock(pt);
+            if (queued != null) {
+                return queued.getData();
+            }
+
+            final ChunkSnapshotCache snapshots = context.getSnapshots();
+            if (snapshots != null) {
+                return snapshots.getBlockData(pt);
+            }
         }
 
+        if (m_blockPlacer.isMainTask()) {
+            return super.getBlockData(pt);
+        }
         return queueBlockGet(pt).getData();
     }
 
     @Override
     public BaseBlock rawGetBlock(Vector pt) {
-        try {
+        final TaskReadContext context = m_readContext.get();
+        if (context != null) {
+            final BaseBlock result = getContextBlock(context, pt);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        if (m_blockPlacer.isMainTask()) {
             return doRawGetBlock(pt);
-        } catch (Exception ex) {
-            /*
-             * Exception here indicates that async block get is not
-             * available. Therefore use the queue fallback.
-             */
         }
         return queueBlockGet(pt);
     }
 
+    /**
+     * Read the block from the task read context
+     *
+     * @param context
+     * @param pt
+     * @return null if the block needs to be read from the world
+     */
+    private BaseBlock getContextBlock(TaskReadContext context, Vector pt) {
+        final BaseBlock queued = context.getQueuedBlock(pt);
+        if (queued != null) {
+            return queued;
+        }
+
+        final ChunkSnapshotCache snapshots = context.getSnapshots();
+        return snapshots != null ? snapshots.getBlock(pt) : null;
+    }
+
     public BaseBlock doRawGetBlock(Vector pt) {
         return super.rawGetBlock(pt);
     }
 
+    /**
+     * Read the blocks of a cuboid. The blocks are stored as
+     * (type &lt;&lt; 4) | data in the X, Z, Y order (index = ((y - minY) *
+     * sizeZ + (z - minZ)) * sizeX + (x - minX)). Blocks with tile entity data
+     * contain only the type and data, use getBlock to get the full block.
+     *
+     * @param min the minimum point
+     * @param max the maximum point
+     * @return
+     */
+    public int[] getBlocks(Vector min, Vector max) {
+        return getBlocks(getBlockReader(new CuboidRegion(min, max)), min, max);
+    }
+
+    @Override
+    public int countBlock(Region region, Set<Integer> searchIDs) {
+        final boolean[] search = new boolean[4096];
+        for (Integer id : searchIDs) {
+            if (id != null && id >= 0 && id < search.length) {
+                search[id] = true;
+            }
+        }
+
+        final int[] counts = countBlocks(region);
+        int result = 0;
+        for (int i = 0; i < counts.length; i += 2) {
+            if (search[counts[i] >> 4]) {
+                result += counts[i + 1];
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int countBlocks(Region region, Set<BaseBlock> searchBlocks) {
+        final int[] counts = countBlocks(region);
+        int result = 0;
+        for (int i = 0; i < counts.length; i += 2) {
+            final BaseBlock block = new BaseBlock(counts[i] >> 4, counts[i] & 0xf);
+            for (BaseBlock searchBlock : searchBlocks) {
+                if (searchBlock.equalsFuzzy(block)) {
+                    result += counts[i + 1];
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Countable<Integer>> getBlockDistribution(Region region) {
+        final int[] counts = countBlocks(region);
+        final int[] types = new int[4096];
+        for (int i = 0; i < counts.length; i += 2) {
+            types[counts[i] >> 4] += counts[i + 1];
+        }
+
+        final List<Countable<Integer>> result = new ArrayList<Countable<Integer>>();
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] > 0) {
+                result.add(new Countable<Integer>(i, types[i]));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    @Override
+    public List<Countable<BaseBlock>> getBlockDistributionWithData(Region region) {
+        final int[] counts = countBlocks(region);
+        final List<Countable<BaseBlock>> result = new ArrayList<Countable<BaseBlock>>();
+        for (int i = 0; i < counts.length; i += 2) {
+            result.add(new Countable<BaseBlock>(new BaseBlock(counts[i] >> 4, counts[i] & 0xf), counts[i + 1]));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Count the region blocks by the packed block id. A cuboid is read chunk
+     * column by chunk column, other regions are read block by block from the
+     * region iterator.
+     *
+     * @param region
+     * @return the ((type &lt;&lt; 4) | data, count) pairs
+     */
+    private int[] countBlocks(Region region) {
+        final BlockCounter counter = BlockCounter.get();
+        final ChunkSnapshotCache reader = getBlockReader(region);
+        final Vector min = region.getMinimumPoint();
+        final Vector max = region.getMaximumPoint();
+        final int minY = min.getBlockY();
+        final int maxY = max.getBlockY();
+
+        if (!(region instanceof CuboidRegion)) {
+            final TaskReadContext context = m_readContext.get();
+            final WriteOverlay overlay = context != null ? context.getOverlay() : null;
+            for (BlockVector pt : region) {
+                counter.add(getPackedBlock(reader, overlay,
+                        pt.getBlockX(), pt.getBlockY(), pt.getBlockZ()));
+            }
+            return counter.drain();
+        }
+
+        final int[] blocks = counter.getBuffer(256 * (maxY - minY + 1));
+        for (int cx = min.getBlockX() >> 4; cx <= max.getBlockX() >> 4; cx++) {
+            final int fromX = Math.max(min.getBlockX(), cx << 4);
+            final int toX = Math.min(max.getBlockX(), (cx << 4) + 15);
+            for (int cz = min.getBlockZ() >> 4; cz <= max.getBlockZ() >> 4; cz++) {
+                final int fromZ = Math.max(min.getBlockZ(), cz << 4);
+                final int toZ = Math.min(max.getBlockZ(), (cz << 4) + 15);
+                final int size = (toX - fromX + 1) * (toZ - fromZ + 1) * (maxY - minY + 1);
+                Arrays.fill(blocks, 0, size, 0);
+                getBlocks(reader, fromX, minY, fromZ, toX, maxY, toZ, blocks);
+
+                for (int index = 0; index < size; index++) {
+                    counter.add(blocks[index]);
+                }
+            }
+        }
+        return counter.drain();
+    }
+
+    /**
+     * Get the chunk snapshots used to read the region, the snapshots of the
+     * async task running on the current thread are used if available. The
+     * main thread reads the world directly.
+     *
+     * @param region
+     * @return null if the blocks should be read from the world
+     */
+    private ChunkSnapshotCache getBlockReader(Region region) {
+        final TaskReadContext context = m_readContext.get();
+        final ChunkSnapshotCache snapshots = context != null ? context.getSnapshots() : null;
+        if (snapshots != null || m_world == null || m_blockPlacer.isMainTask()) {
+            return snapshots;
+        }
+
+        return new ChunkSnapshotCache(this, m_blockPlacer, m_jobId, region, null);
+    }
+
+    /**
+     * Read the block, the queued writes of the current async task are
+     * included
+     *
+     * @param reader the chunk snapshots (may be null)
+     * @param overlay the queued writes (may be null)
+     * @param x
+     * @param y
+     * @param z
+     * @return the (type &lt;&lt; 4) | data block id
+     */
+    private int getPackedBlock(ChunkSnapshotCache reader, WriteOverlay overlay,
+            int x, int y, int z) {
+        final BaseBlock queued = overlay != null ? overlay.get(PositionPacker.pack(x, y, z)) : null;
+        if (queued != null) {
+            return (queued.getType() << 4) | (queued.getData() & 0xf);
+        }
+        if (reader != null) {
+            return (reader.getBlockType(x, y, z) << 4) | reader.getBlockData(x, y, z);
+        }
+        return getWorldBlock(x, y, z);
+    }
+
+    /**
+     * Read the block from the world, the main thread reads the world
+     * directly
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return the (type &lt;&lt; 4) | data block id
+     */
+    private int getWorldBlock(int x, int y, int z) {
+        if (m_world != null && m_blockPlacer.isMainTask()) {
+            if (y < 0 || y >= m_world.getMaxHeight()) {
+                return 0;
+            }
+
+            final Block block = m_world.getBlockAt(x, y, z);
+            return (block.getTypeId() << 4) | (block.getData() & 0xf);
+        }
+
+        final BaseBlock block = getBlock(new Vector(x, y, z));
+        return block != null ? (block.getType() << 4) | (block.getData() & 0xf) : 0;
+    }
+
+    /**
+     * Read the cuboid blocks, the queued writes of the current async task are
+     * included
+     *
+     * @param reader the chunk snapshots (may be null)
+     * @param min
+     * @param max
+     * @return
+     */
+    private int[] getBlocks(ChunkSnapshotCache reader, Vector min, Vector max) {
+        final int minX = min.getBlockX();
+        final int minY = min.getBlockY();
+        final int minZ = min.getBlockZ();
+        final int maxX = max.getBlockX();
+        final int maxY = max.getBlockY();
+        final int maxZ = max.getBlockZ();
+        final int[] result = new int[(maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1)];
+        getBlocks(reader, minX, minY, minZ, maxX, maxY, maxZ, result);
+        return result;
+    }
+
+    /**
+     * Read the cuboid blocks to the destination array, the queued writes of
+     * the current async task are included
+     *
+     * @param reader the chunk snapshots (may be null)
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     * @param result the destination array
+     */
+    private void getBlocks(ChunkSnapshotCache reader, int minX, int minY, int minZ,
+            int maxX, int maxY, int maxZ, int[] result) {
+        final TaskReadContext context = m_readContext.get();
+        final WriteOverlay overlay = context != null ? context.getOverlay() : null;
+
+        if (reader != null) {
+            reader.getBlocks(minX, minY, minZ, maxX, maxY, maxZ, result);
+        }
+
+        if (reader == null || overlay != null) {
+            int index = 0;
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    for (int x = minX; x <= maxX; x++) {
+                        final BaseBlock block = overlay != null ? overlay.get(PositionPacker.pack(x, y, z)) : null;
+                        if (block != null) {
+                            result[index] = (block.getType() << 4) | (block.getData() & 0xf);
+                        } else if (reader == null) {
+                            result[index] = getWorldBlock(x, y, z);
+                        }
+                        index++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Start the async task on the current thread. The task reads its own
+     * queued writes from the job overlay and the world from chunk snapshots,
+     * the region chunks are prefetched and the region physics is frozen until
+     * the job is done. The job needs to be queued before the task starts.
+     *
+     * @param job
+     * @param region the operation region (may be null)
+     */
+    public void beginTask(BlockPlacerJobEntry job, Region region) {
+        final int jobId = job.getJobId();
+        if (m_world != null) {
+            m_blockPlacer.freezeRegion(m_player, job, m_world.getName(), region);
+        }
+        if (m_blockPlacer.isMainTask()) {
+            return;
+        }
+
+        final WriteOverlay overlay;
+        if (ConfigProvider.isReadYourWrites()) {
+            overlay = m_blockPlacer.createOverlay(m_player, jobId);
+        } else {
+            overlay = null;
+        }
+
+        final ChunkSnapshotCache snapshots;
+        if (m_world != null && ConfigProvider.getSnapshotCacheSize() > 0) {
+            snapshots = new ChunkSnapshotCache(this, m_blockPlacer, jobId, region, overlay);
+        } else {
+            snapshots = null;
+        }
+
+        if (overlay != null || snapshots != null) {
+            m_readContext.set(new TaskReadContext(overlay, snapshots));
+        }
+        if (snapshots != null) {
+            snapshots.prefetch();
+        }
+    }
+
+    /**
+     * Finish the async task on the current thread
+     *
+     * @param jobId
+     */
+    public void endTask(int jobId) {
+        m_blockPlacer.closeProducer(m_player);
+
+        final TaskReadContext context = m_readContext.get();
+        if (context != null && context.getOverlay() != null) {
+            m_blockPlacer.removeOverlay(m_player, jobId);
+        }
+        m_readContext.remove();
+    }
+
+    /**
+     * Get the read context of the async task running on the current thread
+     *
+     * @return null if the task has no read context
+     */
+    public TaskReadContext getReadContext() {
+        return m_readContext.get();
+    }
+
+    /**
+     * Start a part of the async task on the current (worker) thread. The part
+     * reads the task queued writes, but it uses its own chunk snapshots
+     * because the snapshot cache is owned by a single thread.
+     *
+     * @param taskContext the task read context (may be null)
+     * @param jobId the task job ID
+     * @param region the part region
+     */
+    public void beginTaskPart(TaskReadContext taskContext, int jobId, Region region) {
+        if (taskContext == null) {
+            return;
+        }
+
+        final WriteOverlay overlay = taskContext.getOverlay();
+        final ChunkSnapshotCache snapshots;
+        if (taskContext.getSnapshots() != null) {
+            snapshots = new ChunkSnapshotCache(this, m_blockPlacer, jobId, region, overlay);
+        } else {
+            snapshots = null;
+        }
+
+        m_readContext.set(new TaskReadContext(overlay, snapshots));
+    }
+
+    /**
+     * Finish the async task part on the current thread
+     */
+    public void endTaskPart() {
+        m_readContext.remove();
+    }
+
     public boolean rawSetBlock(Vector pt, int jobId, BaseBlock block) {
+        //Rejected by WorldEdit anyway, the queued blocks need to be packable
+        final int y = pt.getBlockY();
+        if (y < 0 || y > getWorld().getMaxY() || !PositionPacker.isPackable(pt)) {
+            return false;
+        }
+
         if (!m_bh.canPlace(m_player, m_world, pt)) {
             return false;
         }
@@ -255,6 +658,15 @@ public class AsyncEditSession extends EditSession {
         }
     }
 
+    /**
+     * Get the executor used to prepare the async operations
+     *
+     * @return
+     */
+    public AsyncTaskExecutor getTaskExecutor() {
+        return m_executor;
+    }
+
     /**
      * Get current async mask
      *
@@ -356,7 +768,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerUndoJob(this, session, jobId, "undo");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "undo",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "undo",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -405,7 +817,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "redo");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "redo",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "redo",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -431,7 +843,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "fillXZ");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "fillXZ",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "fillXZ",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -458,7 +870,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "fillXZ");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "fillXZ",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "fillXZ",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -483,7 +895,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "removeAbove");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "removeAbove",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "removeAbove",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -508,7 +920,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "removeBelow");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "removeBelow",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "removeBelow",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -533,7 +945,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "removeNear");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "removeNear",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "removeNear",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -559,8 +971,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "setBlocks");
 
         m_blockPlacer.addJob(m_player, job);
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "setBlocks",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "setBlocks",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -585,8 +997,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "setBlocks");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "setBlocks",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "setBlocks",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -612,8 +1024,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "replaceBlocks");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "replaceBlocks",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "replaceBlocks",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -638,8 +1050,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "replaceBlocks");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "replaceBlocks",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "replaceBlocks",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -664,8 +1076,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "makeBiomeShape");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "makeBiomeShape",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "makeBiomeShape",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -696,8 +1108,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "makeCuboidFaces");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "makeCuboidFaces",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "makeCuboidFaces",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -720,8 +1132,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "makeFaces");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "makeFaces",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "makeFaces",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -745,8 +1157,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "makeCuboidFaces");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "makeCuboidFaces",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "makeCuboidFaces",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -769,8 +1181,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "makeWalls");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "makeWalls",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "makeWalls",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -794,8 +1206,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "makeCuboidWalls");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "makeCuboidWalls",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "makeCuboidWalls",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -819,8 +1231,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "makeCuboidWalls");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "makeCuboidWalls",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "makeCuboidWalls",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -844,8 +1256,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "overlayCuboidBlocks");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "overlayCuboidBlocks",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "overlayCuboidBlocks",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -869,8 +1281,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "overlayCuboidBlocks");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "overlayCuboidBlocks",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "overlayCuboidBlocks",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -894,8 +1306,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "naturalizeCuboidBlocks");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "naturalizeCuboidBlocks",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "naturalizeCuboidBlocks",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -921,8 +1333,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "stackCuboidRegion");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "stackCuboidRegion",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "stackCuboidRegion",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -946,8 +1358,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "moveRegion");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "moveRegion",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "moveRegion",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session) throws MaxChangedBlocksException {
                         try {
@@ -975,8 +1387,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "moveCuboidRegion");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "moveCuboidRegion",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "moveCuboidRegion",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -1000,7 +1412,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "drawLine");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "drawLine",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "drawLine",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -1028,7 +1440,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "drawLine");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "drawLine",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "drawLine",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -1054,7 +1466,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "drainArea");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "drainArea",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "drainArea",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -1080,7 +1492,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "fixLiquid");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "fixLiquid",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "fixLiquid",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -1107,7 +1519,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "makeCylinder");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "makeCylinder",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "makeCylinder",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -1135,7 +1547,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "makeCylinder");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "makeCylinder",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "makeCylinder",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -1162,7 +1574,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "makeSphere");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "makeSphere",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "makeSphere",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -1190,7 +1602,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "makeSphere");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "makeSphere",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "makeSphere",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -1216,7 +1628,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "makePyramid");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "makePyramid",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "makePyramid",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -1241,7 +1653,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "thaw");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "thaw",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "thaw",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -1266,7 +1678,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "simulateSnow");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "simulateSnow",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "simulateSnow",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -1291,7 +1703,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "green");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "green",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "green",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -1317,7 +1729,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "green");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "green",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "green",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -1342,7 +1754,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "makePumpkinPatches");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "makePumpkinPatches",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "makePumpkinPatches",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -1369,7 +1781,7 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "makeForest");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "makeForest",
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "makeForest",
                 m_blockPlacer, job) {
                     @Override
                     public int task(CancelabeEditSession session)
@@ -1397,8 +1809,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "makeShape");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "makeShape",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "makeShape",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -1429,8 +1841,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "deformRegion");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "deformRegion",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "deformRegion",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -1460,8 +1872,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "hollowOutRegion");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "hollowOutRegion",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "hollowOutRegion",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -1485,8 +1897,8 @@ public class AsyncEditSession extends EditSession {
         final BlockPlacerJobEntry job = new BlockPlacerJobEntry(this, session, jobId, "center");
         m_blockPlacer.addJob(m_player, job);
 
-        m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(session, m_player, "center",
-                m_blockPlacer, job) {
+        m_executor.execute(m_player, new AsyncTask(session, m_player, "center",
+                m_blockPlacer, job, region) {
                     @Override
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
@@ -1622,17 +2034,7 @@ public class AsyncEditSession extends EditSession {
             return doRawGetBlock(pt);
         }
 
-        final Object mutex = getBlock.getMutex();
-
         m_blockPlacer.addGetTask(getBlock);
-        synchronized (mutex) {
-            while (getBlock.getResult() == null) {
-                try {
-                    mutex.wait();
-                } catch (InterruptedException ex) {
-                }
-            }
-        }
-        return getBlock.getResult();
+        return getBlock.waitForResult(m_blockPlacer);
     }
 }
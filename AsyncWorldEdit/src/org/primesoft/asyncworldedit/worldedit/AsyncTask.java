@@ -24,6 +24,7 @@
 package org.primesoft.asyncworldedit.worldedit;
 
 import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.regions.Region;
 import org.bukkit.ChatColor;
 import org.bukkit.scheduler.BukkitRunnable;
 import org.primesoft.asyncworldedit.ConfigProvider;
@@ -51,27 +52,40 @@ public abstract class AsyncTask extends BukkitRunnable {
     private final String m_player;
     private final BlockPlacer m_blockPlacer;
     private final BlockPlacerJobEntry m_job;
+    /**
+     * The operation region, its chunks are prefetched
+     */
+    private final Region m_region;
 
     public AsyncTask(final CancelabeEditSession session, final String player,
             final String commandName, BlockPlacer blocksPlacer, BlockPlacerJobEntry job) {
+        this(session, player, commandName, blocksPlacer, job, null);
+    }
+
+    public AsyncTask(final CancelabeEditSession session, final String player,
+            final String commandName, BlockPlacer blocksPlacer, BlockPlacerJobEntry job,
+            final Region region) {
         m_editSession = session;
         m_player = player;
         m_command = commandName;
         m_blockPlacer = blocksPlacer;
         m_job = job;
+        m_region = region;
 
         session.getParent().addAsync(job);
     }
 
     @Override
     public void run() {
+        final AsyncEditSession parent = m_editSession.getParent();
         try {
             m_job.setStatus(BlockPlacerJobEntry.JobStatus.Preparing);
+            m_blockPlacer.addTasks(m_player, m_job);
+            parent.beginTask(m_job, m_region);
             if (ConfigProvider.isTalkative()) {
                 PluginMain.say(m_player, ChatColor.LIGHT_PURPLE + "Running " + ChatColor.WHITE
                         + m_command + ChatColor.LIGHT_PURPLE + " in full async mode.");
             }
-            m_blockPlacer.addTasks(m_player, m_job);
             int cnt = 0;
             if (!m_editSession.isCanceled()) {
                 cnt = task(m_editSession);
@@ -90,15 +104,22 @@ public abstract class AsyncTask extends BukkitRunnable {
             }
         } catch (MaxChangedBlocksException ex) {
             PluginMain.say(m_player, ChatColor.RED + "Maximum block change limit.");
+            m_job.setStatus(BlockPlacerJobEntry.JobStatus.Done);
         } catch (IllegalArgumentException ex) {
-            if (ex.getCause() instanceof CancelabeEditSession.SessionCanceled) {
-                PluginMain.say(m_player, ChatColor.LIGHT_PURPLE + "Job canceled.");
-                m_job.setStatus(BlockPlacerJobEntry.JobStatus.Done);
+            m_job.setStatus(BlockPlacerJobEntry.JobStatus.Done);
+            if (!(ex.getCause() instanceof CancelabeEditSession.SessionCanceled)) {
+                throw ex;
             }
+            PluginMain.say(m_player, ChatColor.LIGHT_PURPLE + "Job canceled.");
+        } catch (RuntimeException ex) {
+            //The job is removed once its queued blocks are placed
+            m_job.setStatus(BlockPlacerJobEntry.JobStatus.Done);
+            throw ex;
+        } finally {
+            parent.endTask(m_job.getJobId());
+            m_job.taskDone();
+            parent.removeAsync(m_job);
         }
-
-        m_job.taskDone();
-        m_editSession.getParent().removeAsync(m_job);
     }
 
     /**
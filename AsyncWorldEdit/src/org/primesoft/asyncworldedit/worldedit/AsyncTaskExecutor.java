@@ -0,0 +1,289 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.worldedit;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.primesoft.asyncworldedit.ConfigProvider;
+import org.primesoft.asyncworldedit.PluginMain;
+
+/**
+ * Bounded executor for the async operation preparation tasks. At most the
+ * configured number of tasks run at once and each player can run only a
+ * limited number of tasks, the other tasks wait in a FIFO queue (their jobs
+ * stay in the initializing state). The running tasks can split their work
+ * into parts that are computed on a separate worker pool.
+ *
+ * @author SBPrime
+ */
+public class AsyncTaskExecutor {
+
+    /**
+     * Idle thread keep alive time (in seconds)
+     */
+    private final static long KEEP_ALIVE = 60;
+
+    /**
+     * Queued task
+     */
+    private static class PendingTask {
+
+        private final String m_player;
+        private final Runnable m_task;
+
+        PendingTask(String player, Runnable task) {
+            m_player = player;
+            m_task = task;
+        }
+    }
+
+    /**
+     * The worker threads
+     */
+    private final ThreadPoolExecutor m_executor;
+
+    /**
+     * The worker threads used to compute the task parts. The pool size
+     * follows the number of CPU cores, it is not configurable and it is not
+     * changed by reloadConfig.
+     */
+    private final ThreadPoolExecutor m_workers;
+
+    /**
+     * Tasks waiting for a free worker
+     */
+    private final LinkedList<PendingTask> m_pending;
+
+    /**
+     * Number of running tasks per player
+     */
+    private final HashMap<String, Integer> m_running;
+
+    /**
+     * Number of running tasks
+     */
+    private int m_runningTotal;
+
+    /**
+     * Maximum number of running tasks
+     */
+    private int m_maxTasks;
+
+    /**
+     * Maximum number of running tasks per player
+     */
+    private int m_maxPlayerTasks;
+
+    public AsyncTaskExecutor() {
+        final AtomicInteger threadId = new AtomicInteger();
+        m_pending = new LinkedList<PendingTask>();
+        m_running = new HashMap<String, Integer>();
+        m_runningTotal = 0;
+        m_maxTasks = getMaxTasks();
+        m_maxPlayerTasks = getMaxPlayerTasks();
+        m_executor = new ThreadPoolExecutor(m_maxTasks, m_maxTasks,
+                KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread result = new Thread(r, "AWE preparation #" + threadId.incrementAndGet());
+                        result.setDaemon(true);
+                        return result;
+                    }
+                });
+        m_executor.allowCoreThreadTimeOut(true);
+
+        final AtomicInteger workerId = new AtomicInteger();
+        final int workers = getWorkerCount();
+        m_workers = new ThreadPoolExecutor(workers, workers,
+                KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread result = new Thread(r, "AWE worker #" + workerId.incrementAndGet());
+                        result.setDaemon(true);
+                        return result;
+                    }
+                });
+        m_workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Reload the limits from the configuration, only the preparation pool is
+     * resized (the task parts pool has a fixed size)
+     */
+    public void reloadConfig() {
+        synchronized (this) {
+            int maxTasks = getMaxTasks();
+            if (maxTasks > m_executor.getMaximumPoolSize()) {
+                m_executor.setMaximumPoolSize(maxTasks);
+                m_executor.setCorePoolSize(maxTasks);
+            } else {
+                m_executor.setCorePoolSize(maxTasks);
+                m_executor.setMaximumPoolSize(maxTasks);
+            }
+            m_maxTasks = maxTasks;
+            m_maxPlayerTasks = getMaxPlayerTasks();
+
+            dispatch();
+        }
+    }
+
+    /**
+     * Queue the task
+     *
+     * @param player the task owner
+     * @param task
+     */
+    public void execute(String player, Runnable task) {
+        synchronized (this) {
+            m_pending.add(new PendingTask(player, task));
+            dispatch();
+        }
+    }
+
+    /**
+     * Compute a part of a running task on the worker pool. The parts are not
+     * bound by the task limits and they should not wait for other parts.
+     *
+     * @param <T>
+     * @param part the task part
+     * @return
+     */
+    public <T> Future<T> submitPart(Callable<T> part) {
+        return m_workers.submit(part);
+    }
+
+    /**
+     * Number of threads computing the task parts, one per CPU core
+     *
+     * @return
+     */
+    public int getWorkerCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Number of tasks waiting for a free worker
+     *
+     * @return
+     */
+    public int getPendingCount() {
+        synchronized (this) {
+            return m_pending.size();
+        }
+    }
+
+    /**
+     * Number of running tasks
+     *
+     * @return
+     */
+    public int getRunningCount() {
+        synchronized (this) {
+            return m_runningTotal;
+        }
+    }
+
+    /**
+     * Stop the executor, the queued tasks are dropped
+     */
+    public void stop() {
+        synchronized (this) {
+            m_pending.clear();
+        }
+        m_executor.shutdown();
+        m_workers.shutdown();
+    }
+
+    /**
+     * Start the first queued tasks that fit into the limits, the caller needs
+     * to hold the executor lock
+     */
+    private void dispatch() {
+        Iterator<PendingTask> it = m_pending.iterator();
+        while (m_runningTotal < m_maxTasks && it.hasNext()) {
+            final PendingTask task = it.next();
+            final Integer running = m_running.get(task.m_player);
+            if (running != null && running >= m_maxPlayerTasks) {
+                continue;
+            }
+
+            it.remove();
+            m_running.put(task.m_player, running != null ? running + 1 : 1);
+            m_runningTotal++;
+            m_executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.m_task.run();
+                    } catch (Throwable t) {
+                        PluginMain.log("Error running async task: " + t.toString(), t);
+                    } finally {
+                        taskDone(task);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Release the task slot and start the next queued task
+     *
+     * @param task
+     */
+    private void taskDone(PendingTask task) {
+        synchronized (this) {
+            Integer running = m_running.get(task.m_player);
+            if (running == null || running <= 1) {
+                m_running.remove(task.m_player);
+            } else {
+                m_running.put(task.m_player, running - 1);
+            }
+            m_runningTotal--;
+
+            dispatch();
+        }
+    }
+
+    private static int getMaxTasks() {
+        int result = ConfigProvider.getPreparationThreads();
+        if (result <= 0) {
+            result = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        }
+        return result;
+    }
+
+    private static int getMaxPlayerTasks() {
+        return Math.max(1, ConfigProvider.getPreparationPlayerLimit());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.worldedit;
+
+/**
+ * Per thread block counter, the counts are kept in a reused array indexed by
+ * (type &lt;&lt; 4) | data and only the used entries are cleared
+ *
+ * @author SBPrime
+ */
+class BlockCounter {
+
+    /**
+     * The counter of the current thread
+     */
+    private final static ThreadLocal<BlockCounter> s_counters = new ThreadLocal<BlockCounter>() {
+        @Override
+        protected BlockCounter initialValue() {
+            return new BlockCounter();
+        }
+    };
+
+    /**
+     * Get the block counter of the current thread
+     *
+     * @return
+     */
+    public static BlockCounter get() {
+        return s_counters.get();
+    }
+
+    /**
+     * Number of blocks for each (type &lt;&lt; 4) | data
+     */
+    private final int[] m_counts = new int[4096 << 4];
+
+    /**
+     * The counted block ids
+     */
+    private int[] m_ids = new int[64];
+
+    /**
+     * Number of counted block ids
+     */
+    private int m_size;
+
+    /**
+     * Reused block buffer
+     */
+    private int[] m_buffer = new int[0];
+
+    private BlockCounter() {
+    }
+
+    /**
+     * Count the block
+     *
+     * @param block the (type &lt;&lt; 4) | data block id
+     */
+    public void add(int block) {
+        final int id = block & 0xffff;
+        if (m_counts[id]++ == 0) {
+            if (m_size == m_ids.length) {
+                final int[] ids = new int[m_size * 2];
+                System.arraycopy(m_ids, 0, ids, 0, m_size);
+                m_ids = ids;
+            }
+            m_ids[m_size++] = id;
+        }
+    }
+
+    /**
+     * Get the reused block buffer
+     *
+     * @param size minimum buffer size
+     * @return
+     */
+    public int[] getBuffer(int size) {
+        if (m_buffer.length < size) {
+            m_buffer = new int[size];
+        }
+        return m_buffer;
+    }
+
+    /**
+     * Get the counted blocks and reset the counter
+     *
+     * @return the (block id, count) pairs
+     */
+    public int[] drain() {
+        final int[] result = new int[m_size * 2];
+        for (int i = 0; i < m_size; i++) {
+            final int id = m_ids[i];
+            result[i * 2] = id;
+            result[i * 2 + 1] = m_counts[id];
+            m_counts[id] = 0;
+        }
+        m_size = 0;
+        return result;
+    }
+}
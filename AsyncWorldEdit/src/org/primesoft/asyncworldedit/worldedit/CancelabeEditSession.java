@@ -26,14 +26,17 @@ package org.primesoft.asyncworldedit.worldedit;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.bags.BlockBag;
 import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.expression.ExpressionException;
 import com.sk89q.worldedit.masks.Mask;
 import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.patterns.SingleBlockPattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Region;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import org.primesoft.asyncworldedit.utils.LongHashSet;
+import org.primesoft.asyncworldedit.utils.PositionPacker;
 
 /**
  *
@@ -57,6 +60,10 @@ public class CancelabeEditSession extends EditSession {
         m_mask = mask;
     }
 
+    public int getJobId() {
+        return m_jobId;
+    }
+
     public boolean isCanceled() {
         return m_isCanceled;
     }
@@ -207,6 +214,76 @@ public class CancelabeEditSession extends EditSession {
         return m_parent.setBlock(pt, pat, m_jobId);
     }
 
+    @Override
+    public int setBlocks(Region region, BaseBlock block)
+            throws MaxChangedBlocksException {
+        if (CuboidFill.canFill(this, region)) {
+            return new CuboidFill(this, new SingleBlockPattern(block)).fill((CuboidRegion) region);
+        }
+        return super.setBlocks(region, block);
+    }
+
+    @Override
+    public int setBlocks(Region region, Pattern pattern)
+            throws MaxChangedBlocksException {
+        if (CuboidFill.canFill(this, region)) {
+            return new CuboidFill(this, pattern).fill((CuboidRegion) region);
+        }
+        return super.setBlocks(region, pattern);
+    }
+
+    @Override
+    public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, BaseBlock toBlock)
+            throws MaxChangedBlocksException {
+        if (CuboidFill.canFill(this, region)) {
+            return new CuboidFill(this, fromBlockTypes, new SingleBlockPattern(toBlock)).fill((CuboidRegion) region);
+        }
+        return super.replaceBlocks(region, fromBlockTypes, toBlock);
+    }
+
+    @Override
+    public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, Pattern pattern)
+            throws MaxChangedBlocksException {
+        if (CuboidFill.canFill(this, region)) {
+            return new CuboidFill(this, fromBlockTypes, pattern).fill((CuboidRegion) region);
+        }
+        return super.replaceBlocks(region, fromBlockTypes, pattern);
+    }
+
+    @Override
+    public int makeSphere(Vector pos, Pattern block, double radiusX,
+            double radiusY, double radiusZ, boolean filled)
+            throws MaxChangedBlocksException {
+        return ShapeGenerator.makeSphere(this, pos, block, radiusX, radiusY, radiusZ, filled);
+    }
+
+    @Override
+    public int makeCylinder(Vector pos, Pattern block, double radiusX,
+            double radiusZ, int height, boolean filled)
+            throws MaxChangedBlocksException {
+        return ShapeGenerator.makeCylinder(this, pos, block, radiusX, radiusZ, height, filled);
+    }
+
+    @Override
+    public int makePyramid(Vector pos, Pattern block, int size, boolean filled)
+            throws MaxChangedBlocksException {
+        return ShapeGenerator.makePyramid(this, pos, block, size, filled);
+    }
+
+    @Override
+    public int makeShape(Region region, Vector zero, Vector unit,
+            Pattern pattern, String expressionString, boolean hollow)
+            throws ExpressionException, MaxChangedBlocksException {
+        return new ExpressionGenerator(this, region, zero, unit, expressionString).makeShape(pattern, hollow);
+    }
+
+    @Override
+    public int deformRegion(Region region, Vector zero, Vector unit,
+            String expressionString)
+            throws ExpressionException, MaxChangedBlocksException {
+        return new ExpressionGenerator(this, region, zero, unit, expressionString).deformRegion();
+    }
+
     @Override
     public void setBlockBag(BlockBag blockBag) {
         m_parent.setBlockBag(blockBag);
@@ -258,38 +335,13 @@ public class CancelabeEditSession extends EditSession {
 //        Mask oldMask = sess.getMask();
 //        sess.setMask(getMask());
 
-        final Map.Entry<Vector, BaseBlock>[] blocks = undoSession.getEntries();
-        final HashMap<Integer, HashMap<Integer, HashSet<Integer>>> placedBlocks = new HashMap<Integer, HashMap<Integer, HashSet<Integer>>>();
-
-        for (int i = blocks.length - 1; i >= 0; i--) {
-            Map.Entry<Vector, BaseBlock> entry = blocks[i];
-            Vector pos = entry.getKey();
-            BaseBlock block = entry.getValue();
-
-            int x = pos.getBlockX();
-            int y = pos.getBlockY();
-            int z = pos.getBlockZ();
-            boolean ignore = false;
-
-            HashMap<Integer, HashSet<Integer>> mapX = placedBlocks.get(x);
-            if (mapX == null) {
-                mapX = new HashMap<Integer, HashSet<Integer>>();
-                placedBlocks.put(x, mapX);
-            }
-
-            HashSet<Integer> mapY = mapX.get(y);
-            if (mapY == null) {
-                mapY = new HashSet<Integer>();
-                mapX.put(y, mapY);
-            }
-            if (mapY.contains(z)) {
-                ignore = true;
-            } else {
-                mapY.add(z);
-            }
-
-            if (!ignore) {
-                sess.smartSetBlock(pos, block);
+        //Walk the entries in reverse, only the last entry of each position is used
+        final int size = undoSession.size();
+        final LongHashSet placedBlocks = new LongHashSet(size);
+        for (int i = size - 1; i >= 0; i--) {
+            final long pos = undoSession.getPosition(i);
+            if (placedBlocks.add(pos)) {
+                sess.smartSetBlock(PositionPacker.toVector(pos), undoSession.getBlock(i));
             }
         }
 
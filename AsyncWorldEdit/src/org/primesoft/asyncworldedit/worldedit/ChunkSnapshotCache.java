@@ -0,0 +1,432 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.worldedit;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.regions.Region;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.primesoft.asyncworldedit.ConfigProvider;
+import org.primesoft.asyncworldedit.blockPlacer.BlockPlacer;
+import org.primesoft.asyncworldedit.blockPlacer.BlockPlacerGetChunksEntry;
+import org.primesoft.asyncworldedit.blockPlacer.WriteOverlay;
+
+/**
+ * Chunk snapshot based block reader used by the async tasks. The snapshots
+ * are captured on the main thread in batches, so a single main thread round
+ * trip serves all the reads of up to batch size chunks. The cache is owned by
+ * a single task thread. The chunks that received job writes after they were
+ * captured are dropped (and captured again on the next read).
+ *
+ * @author SBPrime
+ */
+public class ChunkSnapshotCache {
+
+    /**
+     * Maximum number of chunks in the prefetch plan
+     */
+    private final static int MAX_PLAN = 65536;
+
+    /**
+     * Blocks with tile entity data, the snapshot does not contain the tile
+     * entities so they need to be read from the world
+     */
+    private final static int[] TILE_ENTITY_IDS = new int[]{
+        23, //Dispenser
+        25, //Note block
+        52, //Mob spawner
+        54, //Chest
+        61, //Furnace
+        62, //Burning furnace
+        63, //Sign post
+        68, //Wall sign
+        117, //Brewing stand
+        137, //Command block
+        144, //Head
+        146, //Trapped chest
+        154, //Hopper
+        158 //Dropper
+    };
+
+    private final static boolean[] s_tileEntities = new boolean[4096];
+
+    static {
+        for (int id : TILE_ENTITY_IDS) {
+            s_tileEntities[id] = true;
+        }
+    }
+
+    /**
+     * Check if the block type contains tile entity data
+     *
+     * @param type
+     * @return
+     */
+    public static boolean isTileEntity(int type) {
+        return type >= 0 && type < s_tileEntities.length && s_tileEntities[type];
+    }
+
+    private final AsyncEditSession m_editSession;
+
+    private final BlockPlacer m_blockPlacer;
+
+    private final int m_jobId;
+
+    /**
+     * The job writes overlay (may be null)
+     */
+    private final WriteOverlay m_overlay;
+
+    /**
+     * Last seen overlay stale chunks version
+     */
+    private int m_staleVersion;
+
+    private final int m_maxHeight;
+
+    /**
+     * Number of chunks captured in one main thread round trip
+     */
+    private final int m_batchSize;
+
+    /**
+     * The captured snapshots (LRU order)
+     */
+    private final LinkedHashMap<Long, ChunkSnapshot> m_snapshots;
+
+    /**
+     * The prefetch plan, chunks of the operation region
+     */
+    private final long[] m_plan;
+
+    /**
+     * Chunk position in the prefetch plan
+     */
+    private final HashMap<Long, Integer> m_planIndex;
+
+    /**
+     * Last used chunk
+     */
+    private long m_lastKey;
+
+    private ChunkSnapshot m_lastSnapshot;
+
+    /**
+     * Number of main thread round trips
+     */
+    private int m_fetches;
+
+    public ChunkSnapshotCache(AsyncEditSession editSession, BlockPlacer blockPlacer,
+            int jobId, Region region, WriteOverlay overlay) {
+        final World world = editSession.getCBWorld();
+        final int maxSize;
+
+        m_editSession = editSession;
+        m_blockPlacer = blockPlacer;
+        m_jobId = jobId;
+        m_overlay = overlay;
+        m_staleVersion = overlay != null ? overlay.getStaleVersion() : 0;
+        m_maxHeight = world != null ? world.getMaxHeight() : 256;
+        m_batchSize = Math.max(1, ConfigProvider.getSnapshotBatch());
+        maxSize = Math.max(m_batchSize, ConfigProvider.getSnapshotCacheSize());
+        m_snapshots = new LinkedHashMap<Long, ChunkSnapshot>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ChunkSnapshot> eldest) {
+                return size() > maxSize;
+            }
+        };
+        m_lastSnapshot = null;
+        m_fetches = 0;
+
+        m_plan = getPlan(region);
+        if (m_plan != null) {
+            m_planIndex = new HashMap<Long, Integer>(m_plan.length * 2);
+            for (int i = 0; i < m_plan.length; i++) {
+                m_planIndex.put(m_plan[i], i);
+            }
+        } else {
+            m_planIndex = null;
+        }
+    }
+
+    /**
+     * Number of main thread round trips
+     *
+     * @return
+     */
+    public int getFetchCount() {
+        return m_fetches;
+    }
+
+    /**
+     * Capture the first batch of the region chunks
+     */
+    public void prefetch() {
+        if (m_plan == null || m_plan.length == 0) {
+            return;
+        }
+
+        long key = m_plan[0];
+        getSnapshot((int) (key >> 32), (int) key);
+    }
+
+    public int getBlockType(Vector pt) {
+        return getBlockType(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+    }
+
+    public int getBlockType(int x, int y, int z) {
+        if (y < 0 || y >= m_maxHeight) {
+            return 0;
+        }
+
+        return getSnapshot(x >> 4, z >> 4).getBlockTypeId(x & 0xf, y, z & 0xf);
+    }
+
+    public int getBlockData(Vector pt) {
+        return getBlockData(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+    }
+
+    public int getBlockData(int x, int y, int z) {
+        if (y < 0 || y >= m_maxHeight) {
+            return 0;
+        }
+
+        return getSnapshot(x >> 4, z >> 4).getBlockData(x & 0xf, y, z & 0xf);
+    }
+
+    /**
+     * Read the blocks of a cuboid, the blocks are stored as
+     * (type &lt;&lt; 4) | data in the X, Z, Y order (index = ((y - minY) *
+     * sizeZ + (z - minZ)) * sizeX + (x - minX)). The blocks are read chunk by
+     * chunk.
+     *
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     * @param result the destination array
+     */
+    public void getBlocks(int minX, int minY, int minZ,
+            int maxX, int maxY, int maxZ, int[] result) {
+        final int sizeX = maxX - minX + 1;
+        final int sizeZ = maxZ - minZ + 1;
+        final int fromY = Math.max(minY, 0);
+        final int toY = Math.min(maxY, m_maxHeight - 1);
+        if (fromY > toY) {
+            return;
+        }
+
+        for (int cx = minX >> 4; cx <= maxX >> 4; cx++) {
+            final int fromX = Math.max(minX, cx << 4);
+            final int toX = Math.min(maxX, (cx << 4) + 15);
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; cz++) {
+                final int fromZ = Math.max(minZ, cz << 4);
+                final int toZ = Math.min(maxZ, (cz << 4) + 15);
+                final ChunkSnapshot snapshot = getSnapshot(cx, cz);
+                for (int y = fromY; y <= toY; y++) {
+                    for (int z = fromZ; z <= toZ; z++) {
+                        int index = ((y - minY) * sizeZ + (z - minZ)) * sizeX + (fromX - minX);
+                        for (int x = fromX; x <= toX; x++) {
+                            result[index++] = (snapshot.getBlockTypeId(x & 0xf, y, z & 0xf) << 4)
+                                    | snapshot.getBlockData(x & 0xf, y, z & 0xf);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the block
+     *
+     * @param pt
+     * @return The block or null if the block contains tile entity data
+     */
+    public BaseBlock getBlock(Vector pt) {
+        final int x = pt.getBlockX();
+        final int y = pt.getBlockY();
+        final int z = pt.getBlockZ();
+        if (y < 0 || y >= m_maxHeight) {
+            return new BaseBlock(0);
+        }
+
+        final ChunkSnapshot snapshot = getSnapshot(x >> 4, z >> 4);
+        final int type = snapshot.getBlockTypeId(x & 0xf, y, z & 0xf);
+        if (isTileEntity(type)) {
+            return null;
+        }
+
+        return new BaseBlock(type, snapshot.getBlockData(x & 0xf, y, z & 0xf));
+    }
+
+    /**
+     * Get the chunk snapshot, capture it (and the next chunks from the plan)
+     * if it is not cached
+     *
+     * @param cx
+     * @param cz
+     * @return
+     */
+    private ChunkSnapshot getSnapshot(int cx, int cz) {
+        final long key = WriteOverlay.chunkKey(cx, cz);
+        if (m_overlay != null && m_overlay.getStaleVersion() != m_staleVersion) {
+            dropStale();
+        }
+        if (m_lastSnapshot != null && m_lastKey == key) {
+            return m_lastSnapshot;
+        }
+
+        ChunkSnapshot result = m_snapshots.get(key);
+        if (result == null) {
+            result = fetch(cx, cz, key);
+        }
+
+        m_lastKey = key;
+        m_lastSnapshot = result;
+        return result;
+    }
+
+    /**
+     * Drop the chunks changed after they were captured
+     */
+    private void dropStale() {
+        m_staleVersion = m_overlay.getStaleVersion();
+        for (long key : m_overlay.takeStale()) {
+            m_snapshots.remove(key);
+            if (key == m_lastKey) {
+                m_lastSnapshot = null;
+            }
+        }
+    }
+
+    /**
+     * Capture a batch of chunks starting with the requested chunk
+     *
+     * @param cx
+     * @param cz
+     * @param key
+     * @return
+     */
+    private ChunkSnapshot fetch(int cx, int cz, long key) {
+        final int[] chunkX = new int[m_batchSize];
+        final int[] chunkZ = new int[m_batchSize];
+        int cnt = 0;
+
+        chunkX[cnt] = cx;
+        chunkZ[cnt] = cz;
+        cnt++;
+
+        Integer index = m_planIndex != null ? m_planIndex.get(key) : null;
+        if (index != null) {
+            for (int i = index + 1; i < m_plan.length && cnt < m_batchSize; i++) {
+                long k = m_plan[i];
+                if (!m_snapshots.containsKey(k)) {
+                    chunkX[cnt] = (int) (k >> 32);
+                    chunkZ[cnt] = (int) k;
+                    cnt++;
+                }
+            }
+        } else {
+            for (int dx = -1; dx <= 1 && cnt < m_batchSize; dx++) {
+                for (int dz = -1; dz <= 1 && cnt < m_batchSize; dz++) {
+                    if ((dx != 0 || dz != 0) && !m_snapshots.containsKey(WriteOverlay.chunkKey(cx + dx, cz + dz))) {
+                        chunkX[cnt] = cx + dx;
+                        chunkZ[cnt] = cz + dz;
+                        cnt++;
+                    }
+                }
+            }
+        }
+
+        final int[] requestX = new int[cnt];
+        final int[] requestZ = new int[cnt];
+        System.arraycopy(chunkX, 0, requestX, 0, cnt);
+        System.arraycopy(chunkZ, 0, requestZ, 0, cnt);
+
+        final ChunkSnapshot[] snapshots = queueGetChunks(requestX, requestZ);
+        for (int i = cnt - 1; i >= 0; i--) {
+            m_snapshots.put(WriteOverlay.chunkKey(requestX[i], requestZ[i]), snapshots[i]);
+        }
+
+        return snapshots[0];
+    }
+
+    /**
+     * Capture the chunk snapshots on the main thread
+     *
+     * @param chunkX
+     * @param chunkZ
+     * @return
+     */
+    private ChunkSnapshot[] queueGetChunks(int[] chunkX, int[] chunkZ) {
+        final BlockPlacerGetChunksEntry getChunks = new BlockPlacerGetChunksEntry(m_editSession,
+                m_jobId, chunkX, chunkZ, m_overlay);
+        m_fetches++;
+        if (m_blockPlacer.isMainTask()) {
+            getChunks.Process(m_blockPlacer);
+            return getChunks.getResult();
+        }
+
+        m_blockPlacer.addGetTask(getChunks);
+        return getChunks.waitForResult(m_blockPlacer);
+    }
+
+    /**
+     * Get the chunks of the region bounding box (X major order)
+     *
+     * @param region
+     * @return
+     */
+    private static long[] getPlan(Region region) {
+        if (region == null) {
+            return null;
+        }
+
+        final Vector min = region.getMinimumPoint();
+        final Vector max = region.getMaximumPoint();
+        final int minX = min.getBlockX() >> 4;
+        final int minZ = min.getBlockZ() >> 4;
+        final int maxX = max.getBlockX() >> 4;
+        final int maxZ = max.getBlockZ() >> 4;
+        final long size = (long) (maxX - minX + 1) * (maxZ - minZ + 1);
+        if (size <= 0 || size > MAX_PLAN) {
+            return null;
+        }
+
+        final long[] result = new long[(int) size];
+        int pos = 0;
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cz = minZ; cz <= maxZ; cz++) {
+                result[pos++] = WriteOverlay.chunkKey(cx, cz);
+            }
+        }
+        return result;
+    }
+}
@@ -26,6 +26,7 @@ package org.primesoft.asyncworldedit.worldedit;
 import com.sk89q.worldedit.CuboidClipboard;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.regions.Region;
 import org.bukkit.ChatColor;
 import org.bukkit.scheduler.BukkitRunnable;
 import org.primesoft.asyncworldedit.ConfigProvider;
@@ -54,10 +55,21 @@ public abstract class ClipboardAsyncTask extends BukkitRunnable {
     private final BlockPlacer m_blockPlacer;
     private final BlockPlacerJobEntry m_job;
     private final AsyncEditSession m_editSession;
+    /**
+     * The target region, its chunks are prefetched
+     */
+    private final Region m_region;
 
     public ClipboardAsyncTask(final CuboidClipboard clipboard, final EditSession editSession,
             final String player, final String commandName, BlockPlacer blocksPlacer,
             BlockPlacerJobEntry job) {
+        this(clipboard, editSession, player, commandName, blocksPlacer, job, null);
+    }
+
+    public ClipboardAsyncTask(final CuboidClipboard clipboard, final EditSession editSession,
+            final String player, final String commandName, BlockPlacer blocksPlacer,
+            BlockPlacerJobEntry job, final Region region) {
+        m_region = region;
         m_clipboard = clipboard;
         m_player = player;
         m_command = commandName;
@@ -73,11 +85,14 @@ public abstract class ClipboardAsyncTask extends BukkitRunnable {
     public void run() {
         try {
             m_job.setStatus(BlockPlacerJobEntry.JobStatus.Preparing);
+            m_blockPlacer.addTasks(m_player, m_job);
+            if (m_editSession != null) {
+                m_editSession.beginTask(m_job, m_region);
+            }
             if (ConfigProvider.isTalkative()) {
                 PluginMain.say(m_player, ChatColor.LIGHT_PURPLE + "Running " + ChatColor.WHITE
                         + m_command + ChatColor.LIGHT_PURPLE + " in full async mode.");
             }
-            m_blockPlacer.addTasks(m_player, m_job);
             task(m_clipboard);
 
             if (m_editSession != null && m_editSession.isQueueEnabled()) {
@@ -88,15 +103,25 @@ public abstract class ClipboardAsyncTask extends BukkitRunnable {
             PluginMain.say(m_player, ChatColor.LIGHT_PURPLE + "Clipboard operation done.");
         } catch (MaxChangedBlocksException ex) {
             PluginMain.say(m_player, ChatColor.RED + "Maximum block change limit.");
+            m_job.setStatus(BlockPlacerJobEntry.JobStatus.Done);
         } catch (IllegalArgumentException ex) {
-            if (ex.getCause() instanceof CancelabeEditSession.SessionCanceled) {
-                PluginMain.say(m_player, ChatColor.LIGHT_PURPLE + "Job canceled.");
+            if (!(ex.getCause() instanceof CancelabeEditSession.SessionCanceled)) {
+                m_job.setStatus(BlockPlacerJobEntry.JobStatus.Done);
+                throw ex;
+            }
+            PluginMain.say(m_player, ChatColor.LIGHT_PURPLE + "Job canceled.");
+        } catch (RuntimeException ex) {
+            //The job is removed once its queued blocks are placed
+            m_job.setStatus(BlockPlacerJobEntry.JobStatus.Done);
+            throw ex;
+        } finally {
+            if (m_editSession != null) {
+                m_editSession.endTask(m_job.getJobId());
+            }
+            m_job.taskDone();
+            if (m_editSession != null) {
+                m_editSession.removeAsync(m_job);
             }
-        }
-
-        m_job.taskDone();
-        if (m_editSession != null) {
-            m_editSession.removeAsync(m_job);
         }
     }
 
@@ -0,0 +1,270 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.worldedit;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockType;
+import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import java.util.Set;
+
+/**
+ * Cuboid fill engine used by the setBlocks and replaceBlocks operations. The
+ * region is walked chunk by chunk and section by section, the existing blocks
+ * of a whole section are read at once. The writes go directly to the block
+ * placer, only the blocks that need to be placed after their neighbours use
+ * the WorldEdit set block path.
+ *
+ * @author SBPrime
+ */
+class CuboidFill {
+
+    /**
+     * Check if the fill engine can be used for the operation
+     *
+     * @param session the edit session
+     * @param region the operation region
+     * @return
+     */
+    static boolean canFill(CancelabeEditSession session, Region region) {
+        final AsyncEditSession parent = session.getParent();
+        return region instanceof CuboidRegion
+                && session.getMask() == null && parent.getMask() == null
+                && parent.getBlockBag() == null;
+    }
+
+    /**
+     * The edit session
+     */
+    private final CancelabeEditSession m_session;
+
+    /**
+     * The async edit session
+     */
+    private final AsyncEditSession m_parent;
+
+    /**
+     * The block pattern
+     */
+    private final Pattern m_pattern;
+
+    /**
+     * Packed ids ((type << 4) | data) of the replaced blocks, null to replace
+     * all the blocks
+     */
+    private final boolean[] m_from;
+
+    /**
+     * Replace only the non air blocks
+     */
+    private final boolean m_nonAir;
+
+    /**
+     * History blocks shared by all the history entries (by packed id)
+     */
+    private final BaseBlock[] m_history = new BaseBlock[65536];
+
+    /**
+     * Block change limit, -1 for no limit
+     */
+    private final int m_limit;
+
+    /**
+     * Create new set blocks fill
+     *
+     * @param session
+     * @param pattern
+     */
+    CuboidFill(CancelabeEditSession session, Pattern pattern) {
+        this(session, pattern, false, null);
+    }
+
+    /**
+     * Create new replace blocks fill
+     *
+     * @param session
+     * @param fromBlocks the replaced blocks, null to replace all non air
+     * blocks
+     * @param pattern
+     */
+    CuboidFill(CancelabeEditSession session, Set<BaseBlock> fromBlocks, Pattern pattern) {
+        this(session, pattern, fromBlocks == null, fromBlocks != null ? getIds(fromBlocks) : null);
+    }
+
+    private CuboidFill(CancelabeEditSession session, Pattern pattern,
+            boolean nonAir, boolean[] from) {
+        m_session = session;
+        m_parent = session.getParent();
+        m_pattern = pattern;
+        m_nonAir = nonAir;
+        m_from = from;
+        m_limit = session.getBlockChangeLimit();
+    }
+
+    /**
+     * Get the packed ids of the blocks, blocks with data -1 match all data
+     * values
+     *
+     * @param blocks
+     * @return
+     */
+    private static boolean[] getIds(Set<BaseBlock> blocks) {
+        final boolean[] result = new boolean[65536];
+        for (BaseBlock block : blocks) {
+            final int type = block.getType();
+            if (type < 0 || type >= 4096) {
+                continue;
+            }
+
+            if (block.getData() == -1) {
+                for (int data = 0; data < 16; data++) {
+                    result[(type << 4) | data] = true;
+                }
+            } else {
+                result[(type << 4) | (block.getData() & 0xf)] = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fill the region
+     *
+     * @param region
+     * @return number of changed blocks
+     * @throws MaxChangedBlocksException
+     */
+    int fill(CuboidRegion region) throws MaxChangedBlocksException {
+        final Vector min = region.getMinimumPoint();
+        final Vector max = region.getMaximumPoint();
+        final int minX = min.getBlockX();
+        final int minY = Math.max(0, min.getBlockY());
+        final int minZ = min.getBlockZ();
+        final int maxX = max.getBlockX();
+        final int maxY = Math.min(m_session.getWorld().getMaxY(), max.getBlockY());
+        final int maxZ = max.getBlockZ();
+
+        int affected = 0;
+        for (int cx = minX >> 4; cx <= maxX >> 4; cx++) {
+            final int x1 = Math.max(minX, cx << 4);
+            final int x2 = Math.min(maxX, (cx << 4) + 15);
+
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; cz++) {
+                final int z1 = Math.max(minZ, cz << 4);
+                final int z2 = Math.min(maxZ, (cz << 4) + 15);
+
+                for (int sy = minY >> 4; sy <= maxY >> 4; sy++) {
+                    final int y1 = Math.max(minY, sy << 4);
+                    final int y2 = Math.min(maxY, (sy << 4) + 15);
+
+                    affected += fillSection(x1, y1, z1, x2, y2, z2);
+                }
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Fill a part of a single chunk section
+     *
+     * @return number of changed blocks
+     */
+    private int fillSection(int minX, int minY, int minZ,
+            int maxX, int maxY, int maxZ) throws MaxChangedBlocksException {
+        if (m_session.isCanceled()) {
+            throw new IllegalArgumentException(m_session.new SessionCanceled());
+        }
+
+        final int[] ids = m_parent.getBlocks(new Vector(minX, minY, minZ), new Vector(maxX, maxY, maxZ));
+        int affected = 0;
+        int index = 0;
+        for (int y = minY; y <= maxY; y++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int x = minX; x <= maxX; x++) {
+                    final int id = ids[index++];
+                    if (m_nonAir && id >> 4 == 0) {
+                        continue;
+                    }
+                    if (m_from != null && !m_from[id]) {
+                        continue;
+                    }
+
+                    final BlockVector pt = new BlockVector(x, y, z);
+                    final BaseBlock block = m_pattern.next(pt);
+                    final int type = block.getType();
+                    if (BlockType.shouldPlaceLast(type) || BlockType.shouldPlaceFinal(type)
+                            || BlockType.shouldPlaceLast(id >> 4)) {
+                        //Attached blocks are queued by WorldEdit and placed last,
+                        //the replaced attached blocks are removed first by WorldEdit
+                        if (m_session.setBlock(pt, block)) {
+                            affected++;
+                        }
+                        continue;
+                    }
+                    if (block.getClass() == BaseBlock.class
+                            && !ChunkSnapshotCache.isTileEntity(id >> 4)
+                            && ((type << 4) | (block.getData() & 0xf)) == id) {
+                        //The world already contains the block
+                        continue;
+                    }
+
+                    //The history includes the blocks placed using setBlock,
+                    //same check as the WorldEdit setBlock
+                    if (m_limit != -1 && m_parent.size() >= m_limit) {
+                        throw new MaxChangedBlocksException(m_limit);
+                    }
+                    m_session.rememberChange(pt, getHistoryBlock(pt, id), block);
+                    if (m_session.rawSetBlock(pt, block)) {
+                        affected++;
+                    }
+                }
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Get the block stored in the history
+     *
+     * @param pt block position
+     * @param id the packed block id
+     * @return
+     */
+    private BaseBlock getHistoryBlock(Vector pt, int id) {
+        if (ChunkSnapshotCache.isTileEntity(id >> 4)) {
+            return m_parent.getBlock(pt);
+        }
+
+        BaseBlock result = m_history[id];
+        if (result == null) {
+            result = new BaseBlock(id >> 4, id & 0xf);
+            m_history[id] = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,618 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.worldedit;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.WorldEditExpressionEnvironment;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.expression.Expression;
+import com.sk89q.worldedit.expression.ExpressionException;
+import com.sk89q.worldedit.expression.runtime.RValue;
+import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.primesoft.asyncworldedit.utils.PositionPacker;
+
+/**
+ * Parallel expression evaluation for the makeShape and deformRegion
+ * operations. The region bounding box is split into chunk columns, each
+ * column is evaluated on the task executor worker pool using its own compiled
+ * (and optimized) expression instance. The blocks are placed by the calling
+ * thread in the column order.
+ *
+ * The pattern is used only by the calling thread, the default materials of a
+ * column are computed before the column is submitted. The workers read the
+ * world (expression queries) through a read context that shares the task
+ * queued writes, but uses its own chunk snapshots.
+ *
+ * @author SBPrime
+ */
+class ExpressionGenerator {
+
+    /**
+     * Number of columns computed ahead per worker thread
+     */
+    private final static int COLUMNS_PER_WORKER = 4;
+
+    /**
+     * Initial size of the column buffers
+     */
+    private final static int INITIAL_SIZE = 256;
+
+    /**
+     * Cache entries of the hollow shape check
+     */
+    private final static byte UNKNOWN = 0;
+    private final static byte INSIDE = 1;
+    private final static byte OUTSIDE = 2;
+
+    /**
+     * Deform source of the blocks read as air, the source is outside of the
+     * world. This is the packed (-1, -1, -1) position, the packed sources
+     * never have a negative y.
+     */
+    private final static long AIR = -1L;
+
+    /**
+     * The edit session
+     */
+    private final CancelabeEditSession m_session;
+
+    /**
+     * The operation region
+     */
+    private final Region m_region;
+
+    private final Vector m_zero;
+
+    private final Vector m_unit;
+
+    private final String m_expression;
+
+    /**
+     * The region bounding box
+     */
+    private final int m_minX;
+    private final int m_minY;
+    private final int m_minZ;
+    private final int m_maxX;
+    private final int m_maxY;
+    private final int m_maxZ;
+
+    /**
+     * The read context of the task (may be null)
+     */
+    private final TaskReadContext m_readContext;
+
+    /**
+     * The world maximum y coordinate
+     */
+    private final int m_worldMaxY;
+
+    /**
+     * Columns computed ahead
+     */
+    private final int m_window;
+
+    ExpressionGenerator(CancelabeEditSession session, Region region,
+            Vector zero, Vector unit, String expression) {
+        final Vector min = region.getMinimumPoint();
+        final Vector max = region.getMaximumPoint();
+
+        m_session = session;
+        m_region = region;
+        m_zero = zero;
+        m_unit = unit;
+        m_expression = expression;
+        m_minX = min.getBlockX();
+        m_minY = Math.max(min.getBlockY(), 0);
+        m_minZ = min.getBlockZ();
+        m_maxX = max.getBlockX();
+        m_readContext = session.getParent().getReadContext();
+        m_worldMaxY = session.getWorld().getMaxY();
+        m_maxY = Math.min(max.getBlockY(), m_worldMaxY);
+        m_maxZ = max.getBlockZ();
+        m_window = session.getParent().getTaskExecutor().getWorkerCount() * COLUMNS_PER_WORKER;
+    }
+
+    /**
+     * Generate the expression shape (WorldEdit makeShape)
+     *
+     * @param pattern the default material
+     * @param hollow
+     * @return number of blocks changed
+     * @throws ExpressionException
+     * @throws MaxChangedBlocksException
+     */
+    int makeShape(Pattern pattern, boolean hollow)
+            throws ExpressionException, MaxChangedBlocksException {
+        /* Report the syntax errors before the columns are started */
+        compile("x", "y", "z", "type", "data");
+
+        final LinkedList<Future<ColumnResult>> columns = new LinkedList<Future<ColumnResult>>();
+        int affected = 0;
+        try {
+            final ColumnIterator it = new ColumnIterator();
+            while (true) {
+                while (it.hasNext() && columns.size() < m_window) {
+                    columns.add(submit(new ShapePart(it.next(), pattern, hollow)));
+                }
+
+                final Future<ColumnResult> column = columns.poll();
+                if (column == null) {
+                    break;
+                }
+
+                final ColumnResult result = getResult(column);
+                for (int i = 0; i < result.m_size; i++) {
+                    if (m_session.setBlock(PositionPacker.toVector(result.m_positions[i]),
+                            result.m_blocks[i])) {
+                        affected++;
+                    }
+                }
+            }
+        } finally {
+            cancel(columns);
+        }
+
+        return affected;
+    }
+
+    /**
+     * Deform the region (WorldEdit deformRegion). All the source blocks are
+     * read before the first block is placed, so the deformation uses the
+     * world state from before the operation.
+     *
+     * @return number of blocks changed
+     * @throws ExpressionException
+     * @throws MaxChangedBlocksException
+     */
+    int deformRegion() throws ExpressionException, MaxChangedBlocksException {
+        /* Report the syntax errors before the columns are started */
+        compile("x", "y", "z");
+
+        final LinkedList<Future<ColumnResult>> columns = new LinkedList<Future<ColumnResult>>();
+        final List<ColumnResult> results = new ArrayList<ColumnResult>();
+        try {
+            final ColumnIterator it = new ColumnIterator();
+            while (true) {
+                while (it.hasNext() && columns.size() < m_window) {
+                    columns.add(submit(new DeformPart(it.next())));
+                }
+
+                final Future<ColumnResult> column = columns.poll();
+                if (column == null) {
+                    break;
+                }
+
+                final ColumnResult result = getResult(column);
+                final long[] sources = result.m_sources;
+                final int[] materials = new int[result.m_size];
+                for (int i = 0; i < result.m_size; i++) {
+                    if (sources[i] != AIR) {
+                        final Vector source = PositionPacker.toVector(sources[i]);
+                        materials[i] = (m_session.getBlockType(source) << 4)
+                                | (m_session.getBlockData(source) & 0xf);
+                    }
+                }
+                result.m_materials = materials;
+                result.m_sources = null;
+                results.add(result);
+            }
+        } finally {
+            cancel(columns);
+        }
+
+        int affected = 0;
+        for (ColumnResult result : results) {
+            for (int i = 0; i < result.m_size; i++) {
+                final int material = result.m_materials[i];
+                if (m_session.setBlock(PositionPacker.toVector(result.m_positions[i]),
+                        new BaseBlock(material >> 4, material & 0xf))) {
+                    affected++;
+                }
+            }
+        }
+
+        return affected;
+    }
+
+    /**
+     * Compile and optimize (fold the constant subexpressions) a new
+     * expression instance, the expression instances are not thread safe
+     *
+     * @param variables
+     * @return
+     * @throws ExpressionException
+     */
+    private Expression compile(String... variables) throws ExpressionException {
+        final Expression expression = Expression.compile(m_expression, variables);
+        expression.optimize();
+        return expression;
+    }
+
+    /**
+     * Create the expression environment
+     *
+     * @param expression
+     * @return
+     */
+    private WorldEditExpressionEnvironment setEnvironment(Expression expression) {
+        final WorldEditExpressionEnvironment environment
+                = new WorldEditExpressionEnvironment(m_session, m_unit, m_zero);
+        expression.setEnvironment(environment);
+        return environment;
+    }
+
+    private Future<ColumnResult> submit(Callable<ColumnResult> part) {
+        return m_session.getParent().getTaskExecutor().submitPart(part);
+    }
+
+    /**
+     * Pack the deform source position
+     *
+     * @param source
+     * @return AIR if the source is outside of the world
+     */
+    private long packSource(BlockVector source) {
+        final int x = source.getBlockX();
+        final int y = source.getBlockY();
+        final int z = source.getBlockZ();
+        if (y < 0 || y > m_worldMaxY || !PositionPacker.isPackable(x, y, z)) {
+            return AIR;
+        }
+        return PositionPacker.pack(x, y, z);
+    }
+
+    /**
+     * Start evaluating a column on the current (worker) thread
+     *
+     * @param column the column bounds
+     */
+    private void beginPart(int[] column) {
+        m_session.getParent().beginTaskPart(m_readContext, m_session.getJobId(),
+                new CuboidRegion(new Vector(column[0], m_minY, column[1]),
+                        new Vector(column[2], m_maxY, column[3])));
+    }
+
+    private void endPart() {
+        m_session.getParent().endTaskPart();
+    }
+
+    private void checkCanceled() {
+        if (m_session.isCanceled()) {
+            throw new IllegalArgumentException(m_session.new SessionCanceled());
+        }
+    }
+
+    /**
+     * Wait for the column result
+     *
+     * @param column
+     * @return
+     * @throws ExpressionException
+     */
+    private ColumnResult getResult(Future<ColumnResult> column) throws ExpressionException {
+        try {
+            return column.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            m_session.cancel();
+            throw new IllegalArgumentException(m_session.new SessionCanceled());
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof ExpressionException) {
+                throw (ExpressionException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static void cancel(List<Future<ColumnResult>> columns) {
+        for (Future<ColumnResult> column : columns) {
+            column.cancel(false);
+        }
+    }
+
+    /**
+     * Iterates the chunk columns of the region bounding box, returns the
+     * column bounds (minX, minZ, maxX, maxZ)
+     */
+    private class ColumnIterator {
+
+        private final int m_maxCX = m_maxX >> 4;
+        private final int m_minCZ = m_minZ >> 4;
+        private final int m_maxCZ = m_maxZ >> 4;
+        private int m_cx = m_minX >> 4;
+        private int m_cz = m_minCZ;
+
+        boolean hasNext() {
+            return m_minY <= m_maxY && m_cx <= m_maxCX;
+        }
+
+        int[] next() {
+            final int[] result = new int[]{
+                Math.max(m_cx << 4, m_minX), Math.max(m_cz << 4, m_minZ),
+                Math.min((m_cx << 4) + 15, m_maxX), Math.min((m_cz << 4) + 15, m_maxZ)
+            };
+
+            m_cz++;
+            if (m_cz > m_maxCZ) {
+                m_cz = m_minCZ;
+                m_cx++;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The blocks computed for one column in the chunk section order (y, z, x)
+     */
+    private static class ColumnResult {
+
+        private long[] m_positions = new long[INITIAL_SIZE];
+        private BaseBlock[] m_blocks;
+        private long[] m_sources;
+        private int[] m_materials;
+        private int m_size;
+
+        ColumnResult(boolean blocks, boolean sources) {
+            m_blocks = blocks ? new BaseBlock[INITIAL_SIZE] : null;
+            m_sources = sources ? new long[INITIAL_SIZE] : null;
+        }
+
+        /**
+         * Add the block, the caller sets the block or source at m_size - 1
+         *
+         * @param x
+         * @param y
+         * @param z
+         */
+        void add(int x, int y, int z) {
+            if (m_size == m_positions.length) {
+                final int size = m_size * 2;
+                m_positions = Arrays.copyOf(m_positions, size);
+                if (m_blocks != null) {
+                    m_blocks = Arrays.copyOf(m_blocks, size);
+                }
+                if (m_sources != null) {
+                    m_sources = Arrays.copyOf(m_sources, size);
+                }
+            }
+            m_positions[m_size++] = PositionPacker.pack(x, y, z);
+        }
+    }
+
+    /**
+     * Evaluates the makeShape expression for one column
+     */
+    private class ShapePart implements Callable<ColumnResult> {
+
+        private final int[] m_column;
+        private final int m_colMinX;
+        private final int m_colMinZ;
+        private final int m_colMaxX;
+        private final int m_colMaxZ;
+        private final boolean m_hollow;
+        private Expression m_expr;
+        private RValue m_type;
+        private RValue m_data;
+        private WorldEditExpressionEnvironment m_environment;
+
+        /**
+         * Size of the column and its neighbours
+         */
+        private final int m_sizeX;
+        private final int m_sizeZ;
+
+        /**
+         * The default materials ((type &lt;&lt; 4) | data), computed by the
+         * calling thread. The neighbours are included for hollow shapes.
+         */
+        private final int[] m_defaults;
+
+        /**
+         * The hollow check cache, covers the column and its neighbours
+         */
+        private byte[] m_cache;
+
+        ShapePart(int[] column, Pattern pattern, boolean hollow) {
+            m_column = column;
+            m_colMinX = column[0];
+            m_colMinZ = column[1];
+            m_colMaxX = column[2];
+            m_colMaxZ = column[3];
+            m_hollow = hollow;
+            m_sizeX = m_colMaxX - m_colMinX + 3;
+            m_sizeZ = m_colMaxZ - m_colMinZ + 3;
+            m_defaults = new int[m_sizeX * m_sizeZ * (m_maxY - m_minY + 3)];
+
+            final int border = hollow ? 1 : 0;
+            for (int y = m_minY - border; y <= m_maxY + border; y++) {
+                for (int z = m_colMinZ - border; z <= m_colMaxZ + border; z++) {
+                    for (int x = m_colMinX - border; x <= m_colMaxX + border; x++) {
+                        final BaseBlock block = pattern.next(new BlockVector(x, y, z));
+                        m_defaults[getIndex(x, y, z)] = (block.getType() << 4) | (block.getData() & 0xf);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public ColumnResult call() throws ExpressionException {
+            m_expr = compile("x", "y", "z", "type", "data");
+            m_type = m_expr.getVariable("type", false);
+            m_data = m_expr.getVariable("data", false);
+            m_environment = setEnvironment(m_expr);
+            if (m_hollow) {
+                m_cache = new byte[m_defaults.length];
+            }
+
+            final ColumnResult result = new ColumnResult(true, false);
+            beginPart(m_column);
+            try {
+                for (int y = m_minY; y <= m_maxY; y++) {
+                    checkCanceled();
+
+                    for (int z = m_colMinZ; z <= m_colMaxZ; z++) {
+                        for (int x = m_colMinX; x <= m_colMaxX; x++) {
+                            final Vector position = new BlockVector(x, y, z);
+                            if (!m_region.contains(position)) {
+                                continue;
+                            }
+
+                            final BaseBlock material = getMaterial(position);
+                            if (m_hollow) {
+                                m_cache[getIndex(x, y, z)] = material != null ? INSIDE : OUTSIDE;
+                            }
+                            if (material == null
+                                    || (m_hollow && isInside(x + 1, y, z) && isInside(x - 1, y, z)
+                                    && isInside(x, y + 1, z) && isInside(x, y - 1, z)
+                                    && isInside(x, y, z + 1) && isInside(x, y, z - 1))) {
+                                continue;
+                            }
+
+                            result.add(x, y, z);
+                            result.m_blocks[result.m_size - 1] = material;
+                        }
+                    }
+                }
+            } finally {
+                endPart();
+            }
+
+            return result;
+        }
+
+        private int getIndex(int x, int y, int z) {
+            return ((y - m_minY + 1) * m_sizeZ + (z - m_colMinZ + 1)) * m_sizeX + (x - m_colMinX + 1);
+        }
+
+        private boolean isInside(int x, int y, int z) {
+            final int index = getIndex(x, y, z);
+            byte entry = m_cache[index];
+            if (entry == UNKNOWN) {
+                entry = getMaterial(new BlockVector(x, y, z)) != null ? INSIDE : OUTSIDE;
+                m_cache[index] = entry;
+            }
+            return entry == INSIDE;
+        }
+
+        private BaseBlock getMaterial(Vector position) {
+            final int defaultMaterial = m_defaults[getIndex(position.getBlockX(),
+                    position.getBlockY(), position.getBlockZ())];
+            final Vector scaled = position.subtract(m_zero).divide(m_unit);
+            m_environment.setCurrentBlock(position);
+
+            try {
+                if (m_expr.evaluate(scaled.getX(), scaled.getY(), scaled.getZ(),
+                        defaultMaterial >> 4, defaultMaterial & 0xf) <= 0) {
+                    return null;
+                }
+
+                return new BaseBlock((int) m_type.getValue(), (int) m_data.getValue());
+            } catch (Exception ex) {
+                Logger.getLogger(ExpressionGenerator.class.getName()).log(Level.WARNING,
+                        "Failed to create shape", ex);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Evaluates the deformRegion expression for one column, the result
+     * contains the source position of every block
+     */
+    private class DeformPart implements Callable<ColumnResult> {
+
+        private final int m_colMinX;
+        private final int m_colMinZ;
+        private final int m_colMaxX;
+        private final int m_colMaxZ;
+        private final int[] m_column;
+
+        DeformPart(int[] column) {
+            m_column = column;
+            m_colMinX = column[0];
+            m_colMinZ = column[1];
+            m_colMaxX = column[2];
+            m_colMaxZ = column[3];
+        }
+
+        @Override
+        public ColumnResult call() throws ExpressionException {
+            final Expression expression = compile("x", "y", "z");
+            final RValue varX = expression.getVariable("x", false);
+            final RValue varY = expression.getVariable("y", false);
+            final RValue varZ = expression.getVariable("z", false);
+            final WorldEditExpressionEnvironment environment = setEnvironment(expression);
+
+            final ColumnResult result = new ColumnResult(false, true);
+            beginPart(m_column);
+            try {
+                for (int y = m_minY; y <= m_maxY; y++) {
+                    checkCanceled();
+
+                    for (int z = m_colMinZ; z <= m_colMaxZ; z++) {
+                        for (int x = m_colMinX; x <= m_colMaxX; x++) {
+                            final Vector position = new BlockVector(x, y, z);
+                            if (!m_region.contains(position)) {
+                                continue;
+                            }
+
+                            final Vector scaled = position.subtract(m_zero).divide(m_unit);
+                            expression.evaluate(scaled.getX(), scaled.getY(), scaled.getZ());
+
+                            final BlockVector source = environment.toWorld(varX.getValue(),
+                                    varY.getValue(), varZ.getValue());
+                            result.add(x, y, z);
+                            result.m_sources[result.m_size - 1] = packSource(source);
+                        }
+                    }
+                }
+            } finally {
+                endPart();
+            }
+
+            return result;
+        }
+    }
+}
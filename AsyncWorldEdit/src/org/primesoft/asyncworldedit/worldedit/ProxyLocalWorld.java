@@ -31,7 +31,6 @@ import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.bukkit.BukkitWorld;
 import com.sk89q.worldedit.regions.Region;
 import org.bukkit.World;
-import org.bukkit.scheduler.BukkitScheduler;
 import org.primesoft.asyncworldedit.ConfigProvider;
 import org.primesoft.asyncworldedit.PlayerWrapper;
 import org.primesoft.asyncworldedit.PluginMain;
@@ -51,9 +50,9 @@ public class ProxyLocalWorld extends BukkitWorld {
     private final PlayerWrapper m_wrapper;
 
     /**
-     * Bukkit schedule
+     * The async task executor
      */
-    private final BukkitScheduler m_schedule;
+    private final AsyncTaskExecutor m_executor;
 
     /**
      * The plugin
@@ -75,7 +74,7 @@ public class ProxyLocalWorld extends BukkitWorld {
         m_player = player;
         m_plugin = PluginMain.getInstance();
         m_blockPlacer = m_plugin.getBlockPlacer();
-        m_schedule = m_plugin.getServer().getScheduler();
+        m_executor = m_plugin.getTaskExecutor();
         m_wrapper = m_plugin.getPlayerManager().getPlayer(player);
     }
     
@@ -102,8 +101,8 @@ public class ProxyLocalWorld extends BukkitWorld {
         m_blockPlacer.addJob(m_player, job);
         
         final int maxY = getMaxY();
-        m_schedule.runTaskAsynchronously(m_plugin, new WorldAsyncTask(getWorld(), session,
-                m_player, "regenerate", m_blockPlacer, job) {
+        m_executor.execute(m_player, new WorldAsyncTask(getWorld(), session,
+                m_player, "regenerate", m_blockPlacer, job, region) {
                     @Override
                     public void task(EditSession editSession, World world) throws MaxChangedBlocksException {
                         doRegen(editSession, region, maxY, world, jobId);
@@ -123,9 +122,18 @@ public class ProxyLocalWorld extends BukkitWorld {
      */
     private void doRegen(EditSession eSession, Region region, int maxY, World world, int jobId) {
         BaseBlock[] history = new BaseBlock[16 * 16 * (maxY + 1)];
+        final AsyncEditSession aSession;
+        if (eSession instanceof CancelabeEditSession) {
+            aSession = ((CancelabeEditSession) eSession).getParent();
+        } else if (eSession instanceof AsyncEditSession) {
+            aSession = (AsyncEditSession) eSession;
+        } else {
+            aSession = null;
+        }
         
         for (Vector2D chunk : region.getChunks()) {
             Vector min = new Vector(chunk.getBlockX() * 16, 0, chunk.getBlockZ() * 16);
+            int[] blocks = aSession != null ? aSession.getBlocks(min, min.add(15, maxY, 15)) : null;
 
             // First save all the blocks inside
             for (int x = 0; x < 16; ++x) {
@@ -133,7 +141,11 @@ public class ProxyLocalWorld extends BukkitWorld {
                     for (int z = 0; z < 16; ++z) {
                         Vector pt = min.add(x, y, z);
                         int index = y * 16 * 16 + z * 16 + x;
-                        history[index] = eSession.getBlock(pt);
+                        if (blocks != null && !ChunkSnapshotCache.isTileEntity(blocks[index] >> 4)) {
+                            history[index] = new BaseBlock(blocks[index] >> 4, blocks[index] & 0xf);
+                        } else {
+                            history[index] = eSession.getBlock(pt);
+                        }
                     }
                 }
             }
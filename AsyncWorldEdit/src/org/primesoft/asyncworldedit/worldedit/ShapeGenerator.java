@@ -0,0 +1,389 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.worldedit;
+
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.patterns.Pattern;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.primesoft.asyncworldedit.utils.PositionPacker;
+
+/**
+ * Parallel shape generator. The shape bounding box is split into chunk
+ * columns, the shape blocks of each column are computed on the task executor
+ * worker pool and placed in the column order. The blocks are placed by the
+ * calling thread, so the pattern and the history are used by one thread only.
+ *
+ * @author SBPrime
+ */
+abstract class ShapeGenerator {
+
+    /**
+     * Number of columns computed ahead per worker thread
+     */
+    private final static int COLUMNS_PER_WORKER = 4;
+
+    /**
+     * Initial size of the column block buffer
+     */
+    private final static int INITIAL_SIZE = 256;
+
+    /**
+     * Generate an ellipsoid (WorldEdit makeSphere)
+     *
+     * @param session the edit session
+     * @param pos the center
+     * @param block the block pattern
+     * @param radiusX
+     * @param radiusY
+     * @param radiusZ
+     * @param filled
+     * @return number of blocks changed
+     * @throws MaxChangedBlocksException
+     */
+    static int makeSphere(CancelabeEditSession session, Vector pos, Pattern block,
+            double radiusX, double radiusY, double radiusZ,
+            final boolean filled) throws MaxChangedBlocksException {
+        radiusX += 0.5;
+        radiusY += 0.5;
+        radiusZ += 0.5;
+
+        final double invRadiusX = 1 / radiusX;
+        final double invRadiusY = 1 / radiusY;
+        final double invRadiusZ = 1 / radiusZ;
+
+        final int ceilRadiusX = (int) Math.ceil(radiusX);
+        final int ceilRadiusY = (int) Math.ceil(radiusY);
+        final int ceilRadiusZ = (int) Math.ceil(radiusZ);
+
+        final int x = pos.getBlockX();
+        final int y = pos.getBlockY();
+        final int z = pos.getBlockZ();
+
+        return new ShapeGenerator(session, x, y, z,
+                x - ceilRadiusX, y - ceilRadiusY, z - ceilRadiusZ,
+                x + ceilRadiusX, y + ceilRadiusY, z + ceilRadiusZ) {
+                    @Override
+                    protected boolean contains(int x, int y, int z) {
+                        x = Math.abs(x);
+                        y = Math.abs(y);
+                        z = Math.abs(z);
+
+                        final double xn = x * invRadiusX;
+                        final double yn = y * invRadiusY;
+                        final double zn = z * invRadiusZ;
+                        if (lengthSq(xn, yn, zn) > 1) {
+                            return false;
+                        }
+
+                        return filled
+                        || lengthSq((x + 1) * invRadiusX, yn, zn) > 1
+                        || lengthSq(xn, (y + 1) * invRadiusY, zn) > 1
+                        || lengthSq(xn, yn, (z + 1) * invRadiusZ) > 1;
+                    }
+                }.generate(block);
+    }
+
+    /**
+     * Generate a cylinder (WorldEdit makeCylinder)
+     *
+     * @param session the edit session
+     * @param pos the base center
+     * @param block the block pattern
+     * @param radiusX
+     * @param radiusZ
+     * @param height the height, negative to go down
+     * @param filled
+     * @return number of blocks changed
+     * @throws MaxChangedBlocksException
+     */
+    static int makeCylinder(CancelabeEditSession session, Vector pos, Pattern block,
+            double radiusX, double radiusZ, int height,
+            final boolean filled) throws MaxChangedBlocksException {
+        radiusX += 0.5;
+        radiusZ += 0.5;
+
+        int y = pos.getBlockY();
+        if (height == 0) {
+            return 0;
+        } else if (height < 0) {
+            height = -height;
+            y -= height;
+        }
+
+        final int maxY = session.getWorld().getMaxY();
+        if (y < 0) {
+            y = 0;
+        } else if (y + height - 1 > maxY) {
+            height = maxY - y + 1;
+        }
+
+        final double invRadiusX = 1 / radiusX;
+        final double invRadiusZ = 1 / radiusZ;
+
+        final int ceilRadiusX = (int) Math.ceil(radiusX);
+        final int ceilRadiusZ = (int) Math.ceil(radiusZ);
+
+        final int x = pos.getBlockX();
+        final int z = pos.getBlockZ();
+
+        return new ShapeGenerator(session, x, y, z,
+                x - ceilRadiusX, y, z - ceilRadiusZ,
+                x + ceilRadiusX, y + height - 1, z + ceilRadiusZ) {
+                    @Override
+                    protected boolean contains(int x, int y, int z) {
+                        x = Math.abs(x);
+                        z = Math.abs(z);
+
+                        final double xn = x * invRadiusX;
+                        final double zn = z * invRadiusZ;
+                        if (lengthSq(xn, 0, zn) > 1) {
+                            return false;
+                        }
+
+                        return filled
+                        || lengthSq((x + 1) * invRadiusX, 0, zn) > 1
+                        || lengthSq(xn, 0, (z + 1) * invRadiusZ) > 1;
+                    }
+                }.generate(block);
+    }
+
+    /**
+     * Generate a pyramid (WorldEdit makePyramid)
+     *
+     * @param session the edit session
+     * @param pos the base center
+     * @param block the block pattern
+     * @param size
+     * @param filled
+     * @return number of blocks changed
+     * @throws MaxChangedBlocksException
+     */
+    static int makePyramid(CancelabeEditSession session, Vector pos, Pattern block,
+            final int size, final boolean filled) throws MaxChangedBlocksException {
+        if (size <= 0) {
+            return 0;
+        }
+
+        final int x = pos.getBlockX();
+        final int y = pos.getBlockY();
+        final int z = pos.getBlockZ();
+
+        return new ShapeGenerator(session, x, y, z,
+                x - size + 1, y, z - size + 1,
+                x + size - 1, y + size - 1, z + size - 1) {
+                    @Override
+                    protected boolean contains(int x, int y, int z) {
+                        final int layer = size - y - 1;
+                        x = Math.abs(x);
+                        z = Math.abs(z);
+
+                        if (x > layer || z > layer) {
+                            return false;
+                        }
+                        return filled || x == layer || z == layer;
+                    }
+                }.generate(block);
+    }
+
+    private static double lengthSq(double x, double y, double z) {
+        return (x * x) + (y * y) + (z * z);
+    }
+
+    /**
+     * The edit session
+     */
+    private final CancelabeEditSession m_session;
+
+    /**
+     * The shape origin
+     */
+    private final int m_x;
+    private final int m_y;
+    private final int m_z;
+
+    /**
+     * The shape bounding box (world coordinates)
+     */
+    private final int m_minX;
+    private final int m_minY;
+    private final int m_minZ;
+    private final int m_maxX;
+    private final int m_maxY;
+    private final int m_maxZ;
+
+    private ShapeGenerator(CancelabeEditSession session, int x, int y, int z,
+            int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        m_session = session;
+        m_x = x;
+        m_y = y;
+        m_z = z;
+        m_minX = minX;
+        m_minY = Math.max(minY, 0);
+        m_minZ = minZ;
+        m_maxX = maxX;
+        m_maxY = Math.min(maxY, session.getWorld().getMaxY());
+        m_maxZ = maxZ;
+    }
+
+    /**
+     * Check if the block belongs to the shape
+     *
+     * @param x offset from the shape origin
+     * @param y offset from the shape origin
+     * @param z offset from the shape origin
+     * @return
+     */
+    protected abstract boolean contains(int x, int y, int z);
+
+    /**
+     * Compute the shape on the worker pool and place the blocks in the chunk
+     * column order
+     *
+     * @param block the block pattern
+     * @return number of blocks changed
+     * @throws MaxChangedBlocksException
+     */
+    private int generate(Pattern block) throws MaxChangedBlocksException {
+        if (m_minY > m_maxY) {
+            return 0;
+        }
+
+        final AsyncTaskExecutor executor = m_session.getParent().getTaskExecutor();
+        final int window = executor.getWorkerCount() * COLUMNS_PER_WORKER;
+        final int minCX = m_minX >> 4;
+        final int minCZ = m_minZ >> 4;
+        final int maxCX = m_maxX >> 4;
+        final int maxCZ = m_maxZ >> 4;
+        final LinkedList<Future<long[]>> columns = new LinkedList<Future<long[]>>();
+
+        int affected = 0;
+        int cx = minCX;
+        int cz = minCZ;
+        try {
+            while (true) {
+                while (cx <= maxCX && columns.size() < window) {
+                    columns.add(executor.submitPart(new ColumnPart(cx, cz)));
+                    cz++;
+                    if (cz > maxCZ) {
+                        cz = minCZ;
+                        cx++;
+                    }
+                }
+
+                final Future<long[]> column = columns.poll();
+                if (column == null) {
+                    break;
+                }
+
+                for (long position : getResult(column)) {
+                    if (m_session.setBlock(PositionPacker.toVector(position), block)) {
+                        affected++;
+                    }
+                }
+            }
+        } finally {
+            for (Future<long[]> column : columns) {
+                column.cancel(false);
+            }
+        }
+
+        return affected;
+    }
+
+    /**
+     * Wait for the column result
+     *
+     * @param column
+     * @return
+     */
+    private long[] getResult(Future<long[]> column) {
+        try {
+            return column.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            m_session.cancel();
+            throw new IllegalArgumentException(m_session.new SessionCanceled());
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Computes the shape blocks inside one chunk column, the blocks are
+     * returned in the chunk section order (y, z, x)
+     */
+    private class ColumnPart implements Callable<long[]> {
+
+        private final int m_cx;
+        private final int m_cz;
+
+        ColumnPart(int cx, int cz) {
+            m_cx = cx;
+            m_cz = cz;
+        }
+
+        @Override
+        public long[] call() {
+            final int minX = Math.max(m_cx << 4, m_minX);
+            final int minZ = Math.max(m_cz << 4, m_minZ);
+            final int maxX = Math.min((m_cx << 4) + 15, m_maxX);
+            final int maxZ = Math.min((m_cz << 4) + 15, m_maxZ);
+
+            long[] result = new long[INITIAL_SIZE];
+            int size = 0;
+            for (int y = m_minY; y <= m_maxY; y++) {
+                if (m_session.isCanceled()) {
+                    throw new IllegalArgumentException(m_session.new SessionCanceled());
+                }
+
+                for (int z = minZ; z <= maxZ; z++) {
+                    for (int x = minX; x <= maxX; x++) {
+                        if (!contains(x - m_x, y - m_y, z - m_z)) {
+                            continue;
+                        }
+
+                        if (size == result.length) {
+                            result = Arrays.copyOf(result, size * 2);
+                        }
+                        result[size++] = PositionPacker.pack(x, y, z);
+                    }
+                }
+            }
+
+            return Arrays.copyOf(result, size);
+        }
+    }
+}
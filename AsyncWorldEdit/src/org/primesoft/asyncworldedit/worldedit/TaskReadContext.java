@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 SBPrime.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.primesoft.asyncworldedit.worldedit;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import org.primesoft.asyncworldedit.blockPlacer.WriteOverlay;
+import org.primesoft.asyncworldedit.utils.PositionPacker;
+
+/**
+ * Read context of the async task running on a thread, the task reads are
+ * served from its queued writes and chunk snapshots
+ *
+ * @author SBPrime
+ */
+public class TaskReadContext {
+
+    /**
+     * The job queued writes (may be null)
+     */
+    private final WriteOverlay m_overlay;
+
+    /**
+     * The chunk snapshots (may be null)
+     */
+    private final ChunkSnapshotCache m_snapshots;
+
+    public TaskReadContext(WriteOverlay overlay, ChunkSnapshotCache snapshots) {
+        m_overlay = overlay;
+        m_snapshots = snapshots;
+    }
+
+    public WriteOverlay getOverlay() {
+        return m_overlay;
+    }
+
+    public ChunkSnapshotCache getSnapshots() {
+        return m_snapshots;
+    }
+
+    /**
+     * Get the queued (not yet placed) block written by the task
+     *
+     * @param pt
+     * @return null if the block is not queued
+     */
+    public BaseBlock getQueuedBlock(Vector pt) {
+        if (m_overlay == null) {
+            return null;
+        }
+        return m_overlay.get(PositionPacker.pack(pt));
+    }
+}
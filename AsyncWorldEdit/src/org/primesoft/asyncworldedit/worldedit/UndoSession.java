@@ -26,40 +26,179 @@ package org.primesoft.asyncworldedit.worldedit;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.blocks.BaseBlock;
-import java.util.AbstractMap.SimpleEntry;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map.Entry;
+import java.util.Arrays;
+import java.util.HashMap;
+import org.primesoft.asyncworldedit.utils.PositionPacker;
 
 /**
+ * Edit session that records the undo blocks. The positions are stored
+ * packed, plain blocks are stored as indexes to the session block palette.
+ * Blocks with extra data (signs, chests...) are stored separately. The
+ * entries are read by index so they can be walked in reverse without
+ * copying.
  *
  * @author SBPrime
  */
 public class UndoSession extends EditSession {
-    private List<Entry<Vector, BaseBlock>> m_undoQueue;
 
-    @SuppressWarnings("unchecked")
-	public Entry<Vector, BaseBlock>[] getEntries()
-    {
-        return m_undoQueue.toArray(new Entry[0]);
-    }
-    
-    
+    /**
+     * Initial buffer size
+     */
+    private static final int MIN_CAPACITY = 1024;
+
+    /**
+     * Palette index used for blocks with extra data
+     */
+    private static final char COMPLEX_BLOCK = Character.MAX_VALUE;
+
+    /**
+     * Packed block positions
+     */
+    private long[] m_positions;
+
+    /**
+     * Block palette indexes
+     */
+    private char[] m_blocks;
+
+    /**
+     * Number of recorded entries
+     */
+    private int m_size;
+
+    /**
+     * The palette blocks
+     */
+    private BaseBlock[] m_palette;
+
+    /**
+     * Palette index for the packed block ids
+     */
+    private final HashMap<Integer, Character> m_paletteIndex;
+
+    /**
+     * Blocks with extra data (by entry index)
+     */
+    private final HashMap<Integer, BaseBlock> m_complexBlocks;
+
+    /**
+     * The last stored packed block id
+     */
+    private int m_lastId;
+
+    /**
+     * Palette index of the last stored block
+     */
+    private char m_lastIndex;
+
     public UndoSession() {
         super(null, -1);
         
-        m_undoQueue = new ArrayList<Entry<Vector, BaseBlock>>();
+        m_positions = new long[MIN_CAPACITY];
+        m_blocks = new char[MIN_CAPACITY];
+        m_size = 0;
+        m_palette = new BaseBlock[16];
+        m_paletteIndex = new HashMap<Integer, Character>();
+        m_complexBlocks = new HashMap<Integer, BaseBlock>();
+        m_lastId = -1;
+    }
+
+    /**
+     * Number of recorded entries
+     *
+     * @return
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Get the packed entry position
+     *
+     * @param index
+     * @return
+     */
+    public long getPosition(int index) {
+        return m_positions[index];
+    }
+
+    /**
+     * Get the entry block. Plain blocks are shared by all the entries using
+     * the same palette index.
+     *
+     * @param index
+     * @return
+     */
+    public BaseBlock getBlock(int index) {
+        final char paletteIndex = m_blocks[index];
+        if (paletteIndex == COMPLEX_BLOCK) {
+            return m_complexBlocks.get(index);
+        }
+        return m_palette[paletteIndex];
     }
     
     @Override
     public boolean smartSetBlock(Vector pt, BaseBlock block) {
-        m_undoQueue.add(new SimpleEntry<Vector, BaseBlock>(pt, block));
+        if (!PositionPacker.isPackable(pt)) {
+            //Outside of any world, there is nothing to undo
+            return false;
+        }
+
+        if (m_size == m_positions.length) {
+            final int capacity = m_size + (m_size >> 1);
+            m_positions = Arrays.copyOf(m_positions, capacity);
+            m_blocks = Arrays.copyOf(m_blocks, capacity);
+        }
+
+        char paletteIndex = COMPLEX_BLOCK;
+        if (block.getClass() == BaseBlock.class) {
+            paletteIndex = getPaletteIndex(block);
+        }
+        if (paletteIndex == COMPLEX_BLOCK) {
+            m_complexBlocks.put(m_size, block);
+        }
+
+        m_positions[m_size] = PositionPacker.pack(pt);
+        m_blocks[m_size] = paletteIndex;
+        m_size++;
         return true;
     }
+
+    /**
+     * Get the block palette index, new blocks are added to the palette
+     *
+     * @param block
+     * @return COMPLEX_BLOCK if the palette is full
+     */
+    private char getPaletteIndex(BaseBlock block) {
+        final int id = (block.getType() << 4) | (block.getData() & 0xf);
+        if (id == m_lastId) {
+            return m_lastIndex;
+        }
+
+        Character index = m_paletteIndex.get(id);
+        if (index == null) {
+            final int size = m_paletteIndex.size();
+            if (size >= COMPLEX_BLOCK) {
+                return COMPLEX_BLOCK;
+            }
+            if (size == m_palette.length) {
+                m_palette = Arrays.copyOf(m_palette, size * 2);
+            }
+
+            index = (char) size;
+            m_palette[size] = new BaseBlock(block.getType(), block.getData());
+            m_paletteIndex.put(id, index);
+        }
+
+        m_lastId = id;
+        m_lastIndex = index;
+        return index;
+    }
     
     
     @Override
     public void flushQueue()
     {
     }
-}
\ No newline at end of file
+}
@@ -25,6 +25,7 @@ package org.primesoft.asyncworldedit.worldedit;
 
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.regions.Region;
 import org.bukkit.ChatColor;
 import org.bukkit.World;
 import org.bukkit.scheduler.BukkitRunnable;
@@ -52,9 +53,31 @@ public abstract class WorldAsyncTask extends BukkitRunnable {
     private final BlockPlacerJobEntry m_job;
     private final EditSession m_editSession;
     private final World m_world;
+    /**
+     * The operation region, its chunks are prefetched
+     */
+    private final Region m_region;
+    /**
+     * The async edit session used to read the blocks
+     */
+    private final AsyncEditSession m_asyncSession;
 
     public WorldAsyncTask(final World world, final EditSession editSession, final String player,
             final String commandName, BlockPlacer blocksPlacer, BlockPlacerJobEntry job) {
+        this(world, editSession, player, commandName, blocksPlacer, job, null);
+    }
+
+    public WorldAsyncTask(final World world, final EditSession editSession, final String player,
+            final String commandName, BlockPlacer blocksPlacer, BlockPlacerJobEntry job,
+            final Region region) {
+        m_region = region;
+        if (editSession instanceof CancelabeEditSession) {
+            m_asyncSession = ((CancelabeEditSession) editSession).getParent();
+        } else if (editSession instanceof AsyncEditSession) {
+            m_asyncSession = (AsyncEditSession) editSession;
+        } else {
+            m_asyncSession = null;
+        }
 
         m_world = world;
         m_player = player;
@@ -71,11 +94,14 @@ public abstract class WorldAsyncTask extends BukkitRunnable {
     public void run() {
         try {
             m_job.setStatus(BlockPlacerJobEntry.JobStatus.Preparing);
+            m_blockPlacer.addTasks(m_player, m_job);
+            if (m_asyncSession != null) {
+                m_asyncSession.beginTask(m_job, m_region);
+            }
             if (ConfigProvider.isTalkative()) {
                 PluginMain.say(m_player, ChatColor.LIGHT_PURPLE + "Running " + ChatColor.WHITE
                         + m_command + ChatColor.LIGHT_PURPLE + " in full async mode.");
             }
-            m_blockPlacer.addTasks(m_player, m_job);
             task(m_editSession, m_world);
 
             if (m_editSession != null && m_editSession.isQueueEnabled()) {
@@ -86,16 +112,26 @@ public abstract class WorldAsyncTask extends BukkitRunnable {
             PluginMain.say(m_player, ChatColor.LIGHT_PURPLE + "World operation done.");
         } catch (MaxChangedBlocksException ex) {
             PluginMain.say(m_player, ChatColor.RED + "Maximum block change limit.");
+            m_job.setStatus(BlockPlacerJobEntry.JobStatus.Done);
         } catch (IllegalArgumentException ex) {
-            if (ex.getCause() instanceof CancelabeEditSession.SessionCanceled) {
-                PluginMain.say(m_player, ChatColor.LIGHT_PURPLE + "Job canceled.");
+            if (!(ex.getCause() instanceof CancelabeEditSession.SessionCanceled)) {
+                m_job.setStatus(BlockPlacerJobEntry.JobStatus.Done);
+                throw ex;
             }
-        }
+            PluginMain.say(m_player, ChatColor.LIGHT_PURPLE + "Job canceled.");
+        } catch (RuntimeException ex) {
+            //The job is removed once its queued blocks are placed
+            m_job.setStatus(BlockPlacerJobEntry.JobStatus.Done);
+            throw ex;
+        } finally {
+            if (m_asyncSession != null) {
+                m_asyncSession.endTask(m_job.getJobId());
+            }
+            m_job.taskDone();
 
-        m_job.taskDone();
-        
-        if (m_editSession instanceof AsyncEditSession) {
-            ((AsyncEditSession)m_editSession).removeAsync(m_job);
+            if (m_editSession instanceof AsyncEditSession) {
+                ((AsyncEditSession) m_editSession).removeAsync(m_job);
+            }
         }
     }
 